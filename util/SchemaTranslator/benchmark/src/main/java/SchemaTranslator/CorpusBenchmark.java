@@ -0,0 +1,102 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** End-to-end translation of a corpus: parse, translateAndValidate (to the
+ * default target version) and, for failures, the same error handling as the
+ * command-line tool (failed documents are counted, not fatal).
+ *
+ * The multi-threaded variant translates one copy of the corpus per
+ * available processor concurrently. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusBenchmark {
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        /** Directory relative to the repository root. */
+        @Param({ "test", "test/old" })
+        public String corpus;
+
+        @Param({ "true", "false" })
+        public boolean validate;
+
+        List<byte[]> documents;
+        Options options;
+
+        @Setup(Level.Trial)
+        public void read() throws Exception {
+            Fixtures.quiet();
+            documents = Fixtures.readCorpus( Fixtures.file( corpus ) );
+            options = Fixtures.options( new Options().getLatestVersion(), validate );
+        }
+
+        @TearDown(Level.Trial)
+        public void restoreConsole() {
+            Fixtures.unquiet();
+        }
+    }
+
+    private static void translateAll( Corpus corpus, Blackhole bh ) {
+        for( byte[] document : corpus.documents ){
+            try{
+                TranslatorJava translator = Fixtures.translator( document, corpus.options );
+                bh.consume( translator.translateAndValidate() );
+            }catch( Exception e ){
+                // Kotlin code doesn't declare DocumentException
+                if( !(e instanceof DocumentException) ) throw e;
+                bh.consume( e );
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void singleThread( Corpus corpus, Blackhole bh ) {
+        translateAll( corpus, bh );
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void multiThread( Corpus corpus, Blackhole bh ) {
+        translateAll( corpus, bh );
+    }
+}
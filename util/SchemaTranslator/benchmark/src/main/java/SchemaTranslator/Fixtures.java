@@ -0,0 +1,136 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Shared set-up for the benchmarks: locating the repository, reading
+ * scenarios and building translators with fixed options. */
+final class Fixtures {
+    private Fixtures() {}
+
+    /** Root of the OpenMalaria repository: the system property
+     * openmalaria.root if set, otherwise the first parent of the working
+     * directory containing schema/scenario.xsd. */
+    static File repositoryRoot() {
+        String prop = System.getProperty( "openmalaria.root" );
+        if( prop != null ) return new File( prop );
+        for( File dir = new File( System.getProperty( "user.dir" ) ).getAbsoluteFile();
+                dir != null; dir = dir.getParentFile() ){
+            if( new File( dir, "schema/scenario.xsd" ).isFile() ) return dir;
+        }
+        throw new IllegalStateException( "repository root not found; set -Dopenmalaria.root=..." );
+    }
+
+    static File file( String relPath ) {
+        return new File( repositoryRoot(), relPath );
+    }
+
+    static byte[] read( File file ) throws IOException {
+        RandomAccessFile in = new RandomAccessFile( file, "r" );
+        try{
+            byte[] bytes = new byte[ (int) in.length() ];
+            in.readFully( bytes );
+            return bytes;
+        }finally{
+            in.close();
+        }
+    }
+
+    /** Read all .xml files directly in dir, in name order. */
+    static List<byte[]> readCorpus( File dir ) throws IOException {
+        String[] names = dir.list();
+        if( names == null ) throw new IOException( "not a directory: " + dir );
+        Arrays.sort( names );
+        List<byte[]> corpus = new ArrayList<byte[]>();
+        for( String name : names ){
+            if( name.endsWith( ".xml" ) ) corpus.add( read( new File( dir, name ) ) );
+        }
+        return corpus;
+    }
+
+    /** Options as used for regression testing: all questions which the
+     * translator would otherwise stop to ask are answered. */
+    static Options options( int targetVersion, boolean validate ) {
+        Options options = new Options();
+        options.setSchemaFolder( file( "schema" ) );
+        options.setTargetVersion( targetVersion );
+        options.setDoValidation( validate );
+        options.setMaxDensBug( BugCorrectionBehaviour.CORRECT );
+        options.setITN29Translation( ITN29ParameterTranslation.REPLACE );
+        options.setHsTreatmentTranslation( HSTreatmentOption.SIMPLE );
+        options.setIptiSpOption( IptiSpBehaviour.ASSUME_UNINTENDED );
+        options.setIptiROAR( IptiReportOnlyAtRiskBehaviour.OFF );
+        return options;
+    }
+
+    static TranslatorJava translator( byte[] document, Options options ) {
+        return new TranslatorJava( new InputSource( new ByteArrayInputStream( document ) ), options );
+    }
+
+    /** Translate document to targetVersion (without validation) and return
+     * the result as written by writeTo. */
+    static byte[] translateTo( byte[] document, int targetVersion ) {
+        TranslatorJava translator = translator( document, options( targetVersion, false ) );
+        translator.translateAndValidate();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        translator.writeTo( new StreamResult( out ) );
+        return out.toByteArray();
+    }
+
+    private static PrintStream savedOut = null;
+    private static PrintStream savedErr = null;
+
+    /** Discard console output (translation warnings, validation errors)
+     * until unquiet() is called. */
+    static synchronized void quiet() {
+        if( savedOut != null ) return;
+        savedOut = System.out;
+        savedErr = System.err;
+        PrintStream discard = new PrintStream( new OutputStream() {
+            @Override
+            public void write( int b ) {}
+            @Override
+            public void write( byte[] b, int off, int len ) {}
+        } );
+        System.setOut( discard );
+        System.setErr( discard );
+    }
+
+    static synchronized void unquiet() {
+        if( savedOut == null ) return;
+        System.setOut( savedOut );
+        System.setErr( savedErr );
+        savedOut = null;
+        savedErr = null;
+    }
+}
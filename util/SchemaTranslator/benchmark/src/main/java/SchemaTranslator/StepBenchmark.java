@@ -0,0 +1,92 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Time of each translation step N to N+1 for N = fromVersion: the step's
+ * rewrite rules, then translateNToM, as in translateAndValidate.
+ *
+ * The input is unittest/scenario.xml (schema version 8), translated to
+ * fromVersion during set-up; there is no input older than version 8, so the
+ * earlier steps are not covered, nor is translate32To33, which is incomplete
+ * and always fails. Each invocation parses a fresh copy of the
+ * document (not timed) since steps modify it.
+ *
+ * Steps of one document run in sequence; use -t to run several copies in
+ * parallel. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepBenchmark {
+    @Param({ "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+        "21", "22", "23", "24", "25", "26", "27", "28", "29", "30", "31" })
+    public int fromVersion;
+
+    private byte[] input;
+    private Options options;
+    private TranslatorJava translator;
+
+    @Setup(Level.Trial)
+    public void prepareInput() throws Exception {
+        Fixtures.quiet();
+        byte[] original = Fixtures.read( Fixtures.file( "unittest/scenario.xml" ) );
+        input = Fixtures.translateTo( original, fromVersion );
+        options = Fixtures.options( fromVersion, false );
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() {
+        // parse without applying any streamed step, then allow this step
+        options.setTargetVersion( fromVersion );
+        translator = Fixtures.translator( input, options );
+        options.setTargetVersion( fromVersion + 1 );
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreConsole() {
+        Fixtures.unquiet();
+    }
+
+    @Benchmark
+    public boolean step() {
+        RewriteRules rules = translator.rewriteRules();
+        rules.compile( new int[]{ fromVersion } ).apply( translator.getScenarioElement(),
+                translator.getElementIndex(), translator.getMetrics() );
+        return rules.isRuleOnly( fromVersion ) || translator.translateStep( fromVersion );
+    }
+}
@@ -0,0 +1,86 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/** Serialisation of a parsed scenario with Translator.writeTo (whitespace
+ * stripping, re-indentation and the XSLT identity transform).
+ *
+ * Each invocation parses a fresh copy of the input (not timed), since
+ * writeTo strips white-space from the document. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteToBenchmark {
+    /** Input file relative to the repository root. */
+    @Param({ "test/scenarioESTS.xml", "test/scenario12.xml", "test/old/scenario3.xml" })
+    public String file;
+
+    private byte[] input;
+    private TranslatorJava translator;
+    private ByteArrayOutputStream output;
+
+    @Setup(Level.Trial)
+    public void read() throws Exception {
+        input = Fixtures.read( Fixtures.file( file ) );
+        output = new ByteArrayOutputStream( input.length * 2 );
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() {
+        // target version 0: no streamed translation while parsing
+        translator = Fixtures.translator( input, Fixtures.options( 0, false ) );
+        output.reset();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int singleThread() {
+        translator.writeTo( new StreamResult( output ) );
+        return output.size();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int multiThread() {
+        translator.writeTo( new StreamResult( output ) );
+        return output.size();
+    }
+}
@@ -0,0 +1,137 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Per-thread capture of System.out and System.err.
+ *
+ * While installed, anything a thread prints between begin() and end() is
+ * buffered instead of written to the console. The buffered output can then be
+ * replayed in a deterministic order, so that when several files are
+ * translated in parallel the messages for each file stay together.
+ *
+ * Threads which have not called begin() write straight through.
+ *
+ * This class only depends on the JDK. */
+public final class ConsoleCapture {
+    private ConsoleCapture() {}
+
+    /** Output captured from one thread. */
+    public static final class Output {
+        /** Runs of consecutive writes to one stream, in the order written. */
+        private final List<ByteArrayOutputStream> segments = new ArrayList<ByteArrayOutputStream>();
+        private final List<Boolean> segmentIsErr = new ArrayList<Boolean>();
+
+        private OutputStream segment( boolean isErr ){
+            int last = segments.size() - 1;
+            if( last < 0 || segmentIsErr.get( last ) != isErr ){
+                segments.add( new ByteArrayOutputStream() );
+                segmentIsErr.add( isErr );
+                ++last;
+            }
+            return segments.get( last );
+        }
+
+        /** Write captured output to the real console streams. */
+        public void replay() {
+            PrintStream realOut = originalOut != null ? originalOut : System.out;
+            PrintStream realErr = originalErr != null ? originalErr : System.err;
+            synchronized( ConsoleCapture.class ){
+                for( int i = 0; i < segments.size(); ++i ){
+                    PrintStream stream = segmentIsErr.get( i ) ? realErr : realOut;
+                    ByteArrayOutputStream segment = segments.get( i );
+                    stream.write( segment.toByteArray(), 0, segment.size() );
+                    stream.flush();
+                }
+            }
+        }
+    }
+
+    private static final ThreadLocal<Output> current = new ThreadLocal<Output>();
+    private static PrintStream originalOut = null;
+    private static PrintStream originalErr = null;
+
+    /** Sends writes to the calling thread's buffer if capturing, otherwise
+     * to the original stream. */
+    private static final class Dispatch extends OutputStream {
+        private final PrintStream original;
+        private final boolean isErr;
+        Dispatch( PrintStream original, boolean isErr ){
+            this.original = original;
+            this.isErr = isErr;
+        }
+        private OutputStream target(){
+            Output output = current.get();
+            if( output == null ) return original;
+            return output.segment( isErr );
+        }
+        @Override
+        public void write( int b ) throws IOException {
+            target().write( b );
+        }
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException {
+            target().write( b, off, len );
+        }
+        @Override
+        public void flush() throws IOException {
+            if( current.get() == null ) original.flush();
+        }
+    }
+
+    /** Replace System.out and System.err with capturing streams. */
+    public static synchronized void install() {
+        if( originalOut != null ) return;
+        originalOut = System.out;
+        originalErr = System.err;
+        System.setOut( new PrintStream( new Dispatch( originalOut, false ), true ) );
+        System.setErr( new PrintStream( new Dispatch( originalErr, true ), true ) );
+    }
+
+    /** Restore the original System.out and System.err. */
+    public static synchronized void uninstall() {
+        if( originalOut == null ) return;
+        System.out.flush();
+        System.err.flush();
+        System.setOut( originalOut );
+        System.setErr( originalErr );
+        originalOut = null;
+        originalErr = null;
+    }
+
+    /** Start capturing output of the calling thread. */
+    public static void begin() {
+        current.set( new Output() );
+    }
+
+    /** Stop capturing output of the calling thread and return what was
+     * captured (never null). */
+    public static Output end() {
+        Output output = current.get();
+        current.remove();
+        return output != null ? output : new Output();
+    }
+}
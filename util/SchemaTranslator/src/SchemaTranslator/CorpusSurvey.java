@@ -0,0 +1,201 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Schema versions and sizes of a corpus, with an estimate of the work
+ * needed to translate it (--survey).
+ *
+ * Files are added with their version, read from the root element only
+ * (StreamingTranslator.readVersion), and size. They are counted by version
+ * and by size class. The work for each version is the plan of steps to the
+ * target version (see TranslationPlan); if per-phase costs are given, as
+ * measured by --metrics in an earlier run, the time is estimated from the
+ * mean cost per document of each step run and of the other phases of a
+ * translation.
+ *
+ * This class only depends on the JDK. */
+public final class CorpusSurvey {
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    /** Upper bounds of the size classes, in bytes; the last class is
+     * unbounded. */
+    private static final long[] SIZE_LIMITS = { 16L << 10, 64L << 10, 256L << 10, 1L << 20 };
+    private static final String[] SIZE_LABELS = { "<16K", "<64K", "<256K", "<1M", ">=1M" };
+
+    private static final class Bucket {
+        int files = 0;
+        long bytes = 0;
+        final int[] sizes = new int[ SIZE_LABELS.length ];
+    }
+
+    private final int targetVersion;
+    private final Map<Integer, Bucket> buckets = new TreeMap<Integer, Bucket>();
+    private int unreadable = 0;
+
+    private Map<String, Double> costs = null;
+    private List<String> documentPhases = new ArrayList<String>();
+
+    public CorpusSurvey( int targetVersion ){
+        this.targetVersion = targetVersion;
+    }
+
+    /** Estimate times from costs, the mean wall time per document of each
+     * phase in nanoseconds (see readCosts). Every document is charged the
+     * given phases (e.g. "parse", "validate", "writeTo") plus the steps of
+     * its plan. */
+    public void setCosts( Map<String, Double> costs, List<String> documentPhases ){
+        this.costs = costs;
+        this.documentPhases = new ArrayList<String>( documentPhases );
+    }
+
+    /** Count a file of the given schema version and size. */
+    public void add( int version, long bytes ){
+        Bucket b = buckets.get( version );
+        if( b == null ){
+            b = new Bucket();
+            buckets.put( version, b );
+        }
+        b.files += 1;
+        b.bytes += bytes;
+        int c = 0;
+        while( c < SIZE_LIMITS.length && bytes >= SIZE_LIMITS[ c ] ) ++c;
+        b.sizes[ c ] += 1;
+    }
+
+    /** Count a file whose version could not be read. */
+    public void addUnreadable(){
+        ++unreadable;
+    }
+
+    /** Print the table of versions to out. */
+    public void print( PrintStream out ){
+        int files = 0, steps = 0;
+        long bytes = 0;
+        double nanos = 0;
+        boolean missingCosts = false;
+        StringBuilder s = new StringBuilder();
+        s.append( String.format( "%7s %7s %12s", "version", "files", "bytes" ) );
+        for( String label : SIZE_LABELS ) s.append( String.format( " %6s", label ) );
+        s.append( String.format( " %5s %12s%n", "steps", "estimate" ) );
+        for( Map.Entry<Integer, Bucket> e : buckets.entrySet() ){
+            Bucket b = e.getValue();
+            int[] plan = TranslationPlan.create( e.getKey(), targetVersion ).getSteps();
+            files += b.files;
+            bytes += b.bytes;
+            steps += b.files * plan.length;
+            s.append( String.format( "%7d %7d %12d", e.getKey(), b.files, b.bytes ) );
+            for( int n : b.sizes ) s.append( String.format( " %6d", n ) );
+            s.append( String.format( " %5d", plan.length ) );
+            double perDocument = documentCost( plan );
+            if( Double.isNaN( perDocument ) ){
+                missingCosts |= costs != null;
+                s.append( String.format( " %12s%n", "-" ) );
+            }else{
+                nanos += b.files * perDocument;
+                s.append( String.format( " %12s%n", formatNanos( b.files * perDocument ) ) );
+            }
+        }
+        s.append( String.format( "%7s %7d %12d%n", "total", files, bytes ) );
+        if( unreadable > 0 ) s.append( unreadable ).append( " file(s) could not be read" ).append( String.format( "%n" ) );
+        s.append( String.format( "%d steps to run on the DOM for target version %d%n", steps, targetVersion ) );
+        if( costs == null ){
+            s.append( String.format( "Give --step-costs FILE (written by --metrics) to estimate times%n" ) );
+        }else{
+            s.append( String.format( "Estimated time on one thread: %s%s%n", formatNanos( nanos ),
+                missingCosts ? " (excluding versions with unmeasured steps)" : "" ) );
+        }
+        out.print( s );
+        out.flush();
+    }
+
+    /** Cost of one document with the given plan, or NaN if not known. */
+    private double documentCost( int[] plan ){
+        if( costs == null ) return Double.NaN;
+        double total = 0;
+        for( String phase : documentPhases ){
+            Double c = costs.get( phase );
+            if( c != null ) total += c;
+        }
+        for( int v : plan ){
+            Double c = costs.get( Diagnostics.stepName( v ) );
+            if( c == null ) return Double.NaN;
+            total += c;
+        }
+        return total;
+    }
+
+    private static String formatNanos( double nanos ){
+        if( nanos < 1e6 ) return String.format( "%.1f us", nanos / 1e3 );
+        if( nanos < 1e9 ) return String.format( "%.1f ms", nanos / 1e6 );
+        return String.format( "%.1f s", nanos / 1e9 );
+    }
+
+    private static final Pattern JSON_PHASE = Pattern.compile(
+        "\"phase\":\\s*\"([^\"]*)\",\\s*\"count\":\\s*(\\d+),\\s*\"wallNanos\":\\s*(\\d+)" );
+    private static final Pattern COMMA = Pattern.compile( "," );
+
+    /** Mean wall time per document of each phase, in nanoseconds, from a
+     * file written by TranslationMetrics.write (CSV or JSON). */
+    public static Map<String, Double> readCosts( String path ) throws IOException {
+        Map<String, Double> costs = new HashMap<String, Double>();
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( path ), UTF8 ) );
+        try{
+            boolean json = path.endsWith( ".json" );
+            String line = json ? null : reader.readLine();     // CSV header
+            while( (line = reader.readLine()) != null ){
+                String phase;
+                long count, wallNanos;
+                if( json ){
+                    Matcher m = JSON_PHASE.matcher( line );
+                    if( !m.find() ) continue;
+                    phase = m.group( 1 );
+                    count = Long.parseLong( m.group( 2 ) );
+                    wallNanos = Long.parseLong( m.group( 3 ) );
+                }else{
+                    String[] fields = COMMA.split( line );
+                    if( fields.length < 3 ) continue;
+                    phase = fields[ 0 ];
+                    count = Long.parseLong( fields[ 1 ] );
+                    wallNanos = Long.parseLong( fields[ 2 ] );
+                }
+                if( count > 0 ) costs.put( phase, (double) wallNanos / count );
+            }
+        }catch( NumberFormatException e ){
+            throw new IOException( path + ": not a metrics file (" + e.getMessage() + ")" );
+        }finally{
+            reader.close();
+        }
+        return costs;
+    }
+}
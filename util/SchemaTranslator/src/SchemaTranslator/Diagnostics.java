@@ -0,0 +1,247 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/** Warnings and errors reported while translating documents.
+ *
+ * Each thread collects the entries of the document it is translating,
+ * between begin() and end(), without locking. Every entry is tagged with
+ * the document, the step reporting it (see setStep()), a severity and a
+ * short code which can be used to filter entries. The caller of end()
+ * prints the entries of the document as one block and may add them to a
+ * Report, which is written as CSV or JSON at the end of the run
+ * (--diagnostics).
+ *
+ * Entries reported on a thread which did not call begin() are printed
+ * immediately.
+ *
+ * This class only depends on the JDK. */
+public final class Diagnostics {
+    private Diagnostics() {}
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    public enum Severity {
+        NOTE( "Note" ), WARNING( "Warning" ), ERROR( "Error" );
+
+        private final String label;
+        Severity( String label ){
+            this.label = label;
+        }
+        /** Prefix used when printing, e.g. "Warning". */
+        public String getLabel(){
+            return label;
+        }
+    }
+
+    /** One reported message. */
+    public static final class Entry {
+        private final String document;
+        private final String step;
+        private final Severity severity;
+        private final String code;
+        private final String message;
+
+        Entry( String document, String step, Severity severity, String code, String message ){
+            this.document = document;
+            this.step = step;
+            this.severity = severity;
+            this.code = code;
+            this.message = message;
+        }
+        /** Document being translated, or null if not known. */
+        public String getDocument(){ return document; }
+        /** Step or phase reporting the entry, or null if not known. */
+        public String getStep(){ return step; }
+        public Severity getSeverity(){ return severity; }
+        public String getCode(){ return code; }
+        public String getMessage(){ return message; }
+
+        @Override
+        public String toString(){
+            return severity.getLabel() + ": " + message;
+        }
+    }
+
+    private static final class Context {
+        final String document;
+        String step = null;
+        final List<Entry> entries = new ArrayList<Entry>();
+        Context( String document ){
+            this.document = document;
+        }
+    }
+
+    private static final ThreadLocal<Context> current = new ThreadLocal<Context>();
+
+    /** Name of the step from fromVersion to fromVersion+1, e.g.
+     * "translate31To32". */
+    public static String stepName( int fromVersion ){
+        return "translate" + fromVersion + "To" + (fromVersion + 1);
+    }
+
+    /** Start collecting the entries of document on the calling thread. */
+    public static void begin( String document ){
+        current.set( new Context( document ) );
+    }
+
+    /** Set the step reported with subsequent entries of the calling thread
+     * (null for none). */
+    public static void setStep( String step ){
+        Context context = current.get();
+        if( context != null ) context.step = step;
+    }
+
+    /** Stop collecting and return the entries collected on the calling
+     * thread since begin() (never null). */
+    public static List<Entry> end(){
+        Context context = current.get();
+        current.remove();
+        return context != null ? context.entries : new ArrayList<Entry>();
+    }
+
+    public static void note( String code, String message ){
+        report( Severity.NOTE, code, message );
+    }
+
+    public static void warning( String code, String message ){
+        report( Severity.WARNING, code, message );
+    }
+
+    public static void error( String code, String message ){
+        report( Severity.ERROR, code, message );
+    }
+
+    /** Report an entry for the current step. */
+    public static void report( Severity severity, String code, String message ){
+        Context context = current.get();
+        report( context != null ? context.step : null, severity, code, message );
+    }
+
+    /** Report an entry for the given step (for code which runs outside the
+     * steps, such as the steps applied while streaming). */
+    public static void report( String step, Severity severity, String code, String message ){
+        Context context = current.get();
+        if( context == null ){
+            System.err.println( new Entry( null, step, severity, code, message ) );
+        }else{
+            context.entries.add( new Entry( context.document, step, severity, code, message ) );
+        }
+    }
+
+    /** Print entries to stream as one block. */
+    public static void print( List<Entry> entries, PrintStream stream ){
+        if( entries.isEmpty() ) return;
+        StringBuilder s = new StringBuilder();
+        String nl = System.getProperty( "line.separator" );
+        for( Entry entry : entries ) s.append( entry ).append( nl );
+        stream.print( s );
+        stream.flush();
+    }
+
+    /** Entries of all documents of a run. */
+    public static final class Report {
+        private final List<Entry> entries = new ArrayList<Entry>();
+
+        /** Add the entries of one document. */
+        public synchronized void add( List<Entry> documentEntries ){
+            entries.addAll( documentEntries );
+        }
+
+        /** Write all entries, ordered by document, to path: JSON if path
+         * ends with ".json", otherwise CSV. */
+        public synchronized void write( String path ) throws IOException {
+            List<Entry> sorted = new ArrayList<Entry>( entries );
+            // stable: entries of one document stay in the order reported
+            Collections.sort( sorted, new Comparator<Entry>() {
+                public int compare( Entry a, Entry b ){
+                    return String.valueOf( a.document ).compareTo( String.valueOf( b.document ) );
+                }
+            } );
+            Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( path ), UTF8 ) );
+            try{
+                if( path.endsWith( ".json" ) ) writeJSON( writer, sorted );
+                else writeCSV( writer, sorted );
+            }finally{
+                writer.close();
+            }
+        }
+
+        private static void writeCSV( Writer w, List<Entry> entries ) throws IOException {
+            w.write( "document,step,severity,code,message\n" );
+            for( Entry e : entries ){
+                w.write( csv( e.document ) + "," + csv( e.step ) + "," + e.severity + "," +
+                    csv( e.code ) + "," + csv( e.message ) + "\n" );
+            }
+        }
+
+        private static void writeJSON( Writer w, List<Entry> entries ) throws IOException {
+            w.write( "[" );
+            for( int i = 0; i < entries.size(); ++i ){
+                Entry e = entries.get( i );
+                w.write( (i == 0 ? "\n" : ",\n") +
+                    "  {\"document\": " + json( e.document ) + ", \"step\": " + json( e.step ) +
+                    ", \"severity\": \"" + e.severity + "\", \"code\": " + json( e.code ) +
+                    ", \"message\": " + json( e.message ) + "}" );
+            }
+            w.write( "\n]\n" );
+        }
+
+        static String csv( String s ){
+            if( s == null ) return "";
+            if( s.indexOf( ',' ) < 0 && s.indexOf( '"' ) < 0 && s.indexOf( '\n' ) < 0 && s.indexOf( '\r' ) < 0 )
+                return s;
+            return "\"" + s.replace( "\"", "\"\"" ) + "\"";
+        }
+
+        static String json( String s ){
+            if( s == null ) return "null";
+            StringBuilder b = new StringBuilder( s.length() + 2 );
+            b.append( '"' );
+            for( int i = 0; i < s.length(); ++i ){
+                char c = s.charAt( i );
+                switch( c ){
+                    case '"': b.append( "\\\"" ); break;
+                    case '\\': b.append( "\\\\" ); break;
+                    case '\n': b.append( "\\n" ); break;
+                    case '\r': b.append( "\\r" ); break;
+                    case '\t': b.append( "\\t" ); break;
+                    default:
+                        if( c < 0x20 ) b.append( String.format( "\\u%04x", (int) c ) );
+                        else b.append( c );
+                }
+            }
+            b.append( '"' );
+            return b.toString();
+        }
+    }
+}
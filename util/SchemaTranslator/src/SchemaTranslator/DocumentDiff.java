@@ -0,0 +1,476 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** Structural differences between a scenario and its translation
+ * (--diff-report).
+ *
+ * Each element is given a hash of its name, attributes, text and the
+ * hashes of its child elements, computed bottom-up in one pass over each
+ * document. Elements are then compared from the root down, descending only
+ * into pairs whose hashes differ, so the cost is linear in the size of the
+ * documents plus that of the changed parts. Comments and white-space
+ * around text are ignored. Equal hashes are confirmed by comparing the
+ * elements, so a hash collision cannot hide a change; this walks each
+ * subtree found identical once more.
+ *
+ * Children of two compared elements are paired first by identical hash,
+ * then by name, then by identical content under another name (RENAMED).
+ * Paired children whose order changed are reported as MOVED; the longest
+ * run of children keeping their order is taken as unmoved. Children left
+ * unpaired are REMOVED or ADDED, except that a removed subtree identical to
+ * an added one elsewhere is reported as MOVED instead.
+ *
+ * Paths are like XPath: "/om:scenario/monitoring/surveys", with a 1-based
+ * index where an element has siblings of the same name.
+ *
+ * This class only depends on the JDK. */
+public final class DocumentDiff {
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    public enum Kind {
+        RENAMED, MOVED, ADDED, REMOVED, ATTRIBUTE, TEXT;
+    }
+
+    /** One change. path is that of the element in the original document
+     * (null if ADDED), newPath that in the translation (null if REMOVED).
+     * For ATTRIBUTE, the old and new values are those of the attribute
+     * (null where absent); for TEXT, those of the text. */
+    public static final class Change {
+        private Kind kind;
+        private final String path;
+        private String newPath;
+        private final String attribute;
+        private final String oldValue;
+        private final String newValue;
+
+        Change( Kind kind, String path, String newPath, String attribute, String oldValue, String newValue ){
+            this.kind = kind;
+            this.path = path;
+            this.newPath = newPath;
+            this.attribute = attribute;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+        public Kind getKind(){ return kind; }
+        public String getPath(){ return path; }
+        public String getNewPath(){ return newPath; }
+        public String getAttribute(){ return attribute; }
+        public String getOldValue(){ return oldValue; }
+        public String getNewValue(){ return newValue; }
+
+        @Override
+        public String toString(){
+            switch( kind ){
+                case ADDED: return "added " + newPath;
+                case REMOVED: return "removed " + path;
+                case RENAMED: return "renamed " + path + " to " + newPath;
+                case MOVED: return "moved " + path + " to " + newPath;
+                case ATTRIBUTE: return "attribute " + newPath + "/@" + attribute + ": " + oldValue + " -> " + newValue;
+                default: return "text " + newPath + ": " + oldValue + " -> " + newValue;
+            }
+        }
+    }
+
+    /** Changes from original to translated. Neither document is modified. */
+    public static List<Change> compare( Document original, Document translated ){
+        DocumentDiff diff = new DocumentDiff();
+        Element a = original.getDocumentElement(), b = translated.getDocumentElement();
+        diff.hash( a );
+        diff.hash( b );
+        String path = "/" + a.getNodeName(), newPath = "/" + b.getNodeName();
+        diff.compare( a, b, path, newPath );
+        diff.resolveMoves();
+        return diff.changes;
+    }
+
+    // full hash (with name) and content hash (without) of each element
+    private final Map<Node, long[]> hashes = new IdentityHashMap<Node, long[]>();
+    private final List<Change> changes = new ArrayList<Change>();
+    // REMOVED and ADDED changes, with the hashes of their elements
+    private final List<Change> removed = new ArrayList<Change>();
+    private final List<Element> removedElements = new ArrayList<Element>();
+    private final Map<Long, ArrayDeque<Change>> added = new HashMap<Long, ArrayDeque<Change>>();
+    private final Map<Change, Element> addedElements = new IdentityHashMap<Change, Element>();
+
+    private DocumentDiff() {}
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long hash( long h, String s ){
+        for( int i = 0; i < s.length(); ++i ){
+            h = (h ^ s.charAt( i )) * FNV_PRIME;
+        }
+        return (h ^ 0xFFFF) * FNV_PRIME;     // terminator: not a char value
+    }
+
+    private static long hash( long h, long value ){
+        for( int i = 0; i < 8; ++i ){
+            h = (h ^ (value & 0xFF)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return h;
+    }
+
+    private long hash( Element elt ){
+        long h = FNV_OFFSET;
+        NamedNodeMap attrs = elt.getAttributes();
+        String[] names = attributeNames( elt );
+        for( String name : names ){
+            h = hash( hash( h, name ), attrs.getNamedItem( name ).getNodeValue() );
+        }
+        h = hash( h, text( elt ) );
+        for( Node n = elt.getFirstChild(); n != null; n = n.getNextSibling() ){
+            if( n.getNodeType() == Node.ELEMENT_NODE ) h = hash( h, hash( (Element) n ) );
+        }
+        long full = hash( hash( FNV_OFFSET, elt.getNodeName() ), h );
+        hashes.put( elt, new long[]{ full, h } );
+        return full;
+    }
+
+    private long fullHash( Element elt ){
+        return hashes.get( elt )[ 0 ];
+    }
+
+    private long contentHash( Element elt ){
+        return hashes.get( elt )[ 1 ];
+    }
+
+    /** True if a and b are the same as far as the hash is concerned:
+     * attributes, trimmed text and child elements, and with withName the
+     * names. */
+    private static boolean equal( Element a, Element b, boolean withName ){
+        if( withName && !a.getNodeName().equals( b.getNodeName() ) ) return false;
+        String[] names = attributeNames( a );
+        if( !Arrays.equals( names, attributeNames( b ) ) ) return false;
+        for( String name : names ){
+            if( !a.getAttribute( name ).equals( b.getAttribute( name ) ) ) return false;
+        }
+        if( !text( a ).equals( text( b ) ) ) return false;
+        List<Element> as = children( a ), bs = children( b );
+        if( as.size() != bs.size() ) return false;
+        for( int i = 0; i < as.size(); ++i ){
+            if( !equal( as.get( i ), bs.get( i ), true ) ) return false;
+        }
+        return true;
+    }
+
+    private static String[] attributeNames( Element elt ){
+        NamedNodeMap attrs = elt.getAttributes();
+        String[] names = new String[ attrs.getLength() ];
+        for( int i = 0; i < names.length; ++i ) names[ i ] = attrs.item( i ).getNodeName();
+        Arrays.sort( names );
+        return names;
+    }
+
+    /** Text directly in elt, trimmed. */
+    private static String text( Element elt ){
+        StringBuilder s = null;
+        for( Node n = elt.getFirstChild(); n != null; n = n.getNextSibling() ){
+            short type = n.getNodeType();
+            if( type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE ){
+                if( s == null ) s = new StringBuilder();
+                s.append( n.getNodeValue() );
+            }
+        }
+        return s == null ? "" : s.toString().trim();
+    }
+
+    private static List<Element> children( Element elt ){
+        List<Element> list = new ArrayList<Element>();
+        for( Node n = elt.getFirstChild(); n != null; n = n.getNextSibling() ){
+            if( n.getNodeType() == Node.ELEMENT_NODE ) list.add( (Element) n );
+        }
+        return list;
+    }
+
+    /** Paths of children under parentPath. */
+    private static String[] paths( String parentPath, List<Element> children ){
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for( Element e : children ){
+            Integer c = counts.get( e.getNodeName() );
+            counts.put( e.getNodeName(), c == null ? 1 : c + 1 );
+        }
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        String[] paths = new String[ children.size() ];
+        for( int i = 0; i < paths.length; ++i ){
+            String name = children.get( i ).getNodeName();
+            if( counts.get( name ) > 1 ){
+                Integer k = indices.get( name );
+                k = k == null ? 1 : k + 1;
+                indices.put( name, k );
+                paths[ i ] = parentPath + "/" + name + "[" + k + "]";
+            }else{
+                paths[ i ] = parentPath + "/" + name;
+            }
+        }
+        return paths;
+    }
+
+    private void compare( Element a, Element b, String path, String newPath ){
+        if( fullHash( a ) == fullHash( b ) && equal( a, b, true ) ) return;
+        if( !a.getNodeName().equals( b.getNodeName() ) ){
+            changes.add( new Change( Kind.RENAMED, path, newPath, null, null, null ) );
+            if( contentHash( a ) == contentHash( b ) && equal( a, b, false ) ) return;
+        }
+
+        TreeSet<String> names = new TreeSet<String>( Arrays.asList( attributeNames( a ) ) );
+        names.addAll( Arrays.asList( attributeNames( b ) ) );
+        for( String name : names ){
+            String oldValue = a.hasAttribute( name ) ? a.getAttribute( name ) : null;
+            String newValue = b.hasAttribute( name ) ? b.getAttribute( name ) : null;
+            if( oldValue == null ? newValue != null : !oldValue.equals( newValue ) )
+                changes.add( new Change( Kind.ATTRIBUTE, path, newPath, name, oldValue, newValue ) );
+        }
+        String oldText = text( a ), newText = text( b );
+        if( !oldText.equals( newText ) )
+            changes.add( new Change( Kind.TEXT, path, newPath, null, oldText, newText ) );
+
+        compareChildren( children( a ), children( b ), path, newPath );
+    }
+
+    private void compareChildren( List<Element> as, List<Element> bs, String path, String newPath ){
+        int[] pairOf = new int[ as.size() ];    // index in bs of the pair of as[i], or -1
+        Arrays.fill( pairOf, -1 );
+        boolean[] paired = new boolean[ bs.size() ];
+
+        // identical subtrees, then same name, then same content (renamed)
+        Map<Long, ArrayDeque<Integer>> byHash = new HashMap<Long, ArrayDeque<Integer>>();
+        for( int j = 0; j < bs.size(); ++j ) queue( byHash, fullHash( bs.get( j ) ), j );
+        for( int i = 0; i < as.size(); ++i ) pairEqual( i, as.get( i ), byHash.get( fullHash( as.get( i ) ) ), bs, true, pairOf, paired );
+
+        Map<String, ArrayDeque<Integer>> byName = new HashMap<String, ArrayDeque<Integer>>();
+        for( int j = 0; j < bs.size(); ++j ) if( !paired[ j ] ) queue( byName, bs.get( j ).getNodeName(), j );
+        for( int i = 0; i < as.size(); ++i ) if( pairOf[ i ] < 0 ) pair( i, byName.get( as.get( i ).getNodeName() ), pairOf, paired );
+
+        Map<Long, ArrayDeque<Integer>> byContent = new HashMap<Long, ArrayDeque<Integer>>();
+        for( int j = 0; j < bs.size(); ++j ) if( !paired[ j ] ) queue( byContent, contentHash( bs.get( j ) ), j );
+        for( int i = 0; i < as.size(); ++i ) if( pairOf[ i ] < 0 ) pairEqual( i, as.get( i ), byContent.get( contentHash( as.get( i ) ) ), bs, false, pairOf, paired );
+
+        String[] paths = paths( path, as ), newPaths = paths( newPath, bs );
+        boolean[] inOrder = longestIncreasing( pairOf );
+        for( int i = 0; i < as.size(); ++i ){
+            int j = pairOf[ i ];
+            if( j < 0 ){
+                Change change = new Change( Kind.REMOVED, paths[ i ], null, null, null, null );
+                changes.add( change );
+                removed.add( change );
+                removedElements.add( as.get( i ) );
+                continue;
+            }
+            if( !inOrder[ i ] ) changes.add( new Change( Kind.MOVED, paths[ i ], newPaths[ j ], null, null, null ) );
+            compare( as.get( i ), bs.get( j ), paths[ i ], newPaths[ j ] );
+        }
+        for( int j = 0; j < bs.size(); ++j ){
+            if( paired[ j ] ) continue;
+            Change change = new Change( Kind.ADDED, null, newPaths[ j ], null, null, null );
+            changes.add( change );
+            queue( added, fullHash( bs.get( j ) ), change );
+            addedElements.put( change, bs.get( j ) );
+        }
+    }
+
+    private static <K, V> void queue( Map<K, ArrayDeque<V>> map, K key, V value ){
+        ArrayDeque<V> q = map.get( key );
+        if( q == null ){
+            q = new ArrayDeque<V>();
+            map.put( key, q );
+        }
+        q.add( value );
+    }
+
+    private static void pair( int i, ArrayDeque<Integer> candidates, int[] pairOf, boolean[] paired ){
+        if( candidates == null ) return;
+        while( !candidates.isEmpty() ){
+            int j = candidates.poll();
+            if( !paired[ j ] ){
+                pairOf[ i ] = j;
+                paired[ j ] = true;
+                return;
+            }
+        }
+    }
+
+    /** Pair as[i], a, with the first unpaired candidate in bs equal to it
+     * (see equal); candidates have the same hash as a. */
+    private static void pairEqual( int i, Element a, ArrayDeque<Integer> candidates, List<Element> bs,
+            boolean withName, int[] pairOf, boolean[] paired ){
+        if( candidates == null ) return;
+        for( Iterator<Integer> it = candidates.iterator(); it.hasNext(); ){
+            int j = it.next();
+            if( paired[ j ] ){
+                it.remove();
+            }else if( equal( a, bs.get( j ), withName ) ){
+                it.remove();
+                pairOf[ i ] = j;
+                paired[ j ] = true;
+                return;
+            }
+        }
+    }
+
+    /** Marks the entries of a longest strictly increasing subsequence of
+     * the non-negative values of seq (O(n log n)). */
+    private static boolean[] longestIncreasing( int[] seq ){
+        int n = seq.length;
+        int[] tails = new int[ n ];     // index in seq of the last entry of the best run of each length
+        int[] prev = new int[ n ];
+        int length = 0;
+        for( int i = 0; i < n; ++i ){
+            if( seq[ i ] < 0 ) continue;
+            int lo = 0, hi = length;
+            while( lo < hi ){
+                int mid = (lo + hi) >>> 1;
+                if( seq[ tails[ mid ] ] < seq[ i ] ) lo = mid + 1;
+                else hi = mid;
+            }
+            prev[ i ] = lo > 0 ? tails[ lo - 1 ] : -1;
+            tails[ lo ] = i;
+            if( lo == length ) ++length;
+        }
+        boolean[] marked = new boolean[ n ];
+        for( int i = length > 0 ? tails[ length - 1 ] : -1; i >= 0; i = prev[ i ] ) marked[ i ] = true;
+        return marked;
+    }
+
+    /** Turn removed subtrees which were added identically elsewhere into
+     * moves. */
+    private void resolveMoves(){
+        List<Change> moved = new ArrayList<Change>();
+        for( int i = 0; i < removed.size(); ++i ){
+            Element elt = removedElements.get( i );
+            ArrayDeque<Change> q = added.get( fullHash( elt ) );
+            if( q == null ) continue;
+            Change addition = null;
+            for( Iterator<Change> it = q.iterator(); it.hasNext(); ){
+                Change c = it.next();
+                if( equal( elt, addedElements.get( c ), true ) ){
+                    it.remove();
+                    addition = c;
+                    break;
+                }
+            }
+            if( addition == null ) continue;
+            Change removal = removed.get( i );
+            removal.kind = Kind.MOVED;
+            removal.newPath = addition.newPath;
+            moved.add( addition );
+        }
+        if( !moved.isEmpty() ){
+            // remove by identity; Change does not override equals
+            Map<Change, Boolean> drop = new IdentityHashMap<Change, Boolean>();
+            for( Change c : moved ) drop.put( c, Boolean.TRUE );
+            List<Change> kept = new ArrayList<Change>( changes.size() - moved.size() );
+            for( Change c : changes ) if( !drop.containsKey( c ) ) kept.add( c );
+            changes.clear();
+            changes.addAll( kept );
+        }
+    }
+
+    /** Changes of all documents of a run. */
+    public static final class Report {
+        private final List<String> documents = new ArrayList<String>();
+        private final List<List<Change>> changes = new ArrayList<List<Change>>();
+
+        /** Add the changes of one document. */
+        public synchronized void add( String document, List<Change> documentChanges ){
+            documents.add( document );
+            changes.add( documentChanges );
+        }
+
+        /** Write all changes, ordered by document, to path: JSON if path
+         * ends with ".json", otherwise CSV. */
+        public synchronized void write( String path ) throws IOException {
+            Integer[] order = new Integer[ documents.size() ];
+            for( int i = 0; i < order.length; ++i ) order[ i ] = i;
+            Arrays.sort( order, new Comparator<Integer>() {
+                public int compare( Integer a, Integer b ){
+                    return documents.get( a ).compareTo( documents.get( b ) );
+                }
+            } );
+            Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( path ), UTF8 ) );
+            try{
+                if( path.endsWith( ".json" ) ) writeJSON( writer, order );
+                else writeCSV( writer, order );
+            }finally{
+                writer.close();
+            }
+        }
+
+        private void writeCSV( Writer w, Integer[] order ) throws IOException {
+            w.write( "document,change,path,newPath,attribute,oldValue,newValue\n" );
+            for( int i : order ){
+                String document = Diagnostics.Report.csv( documents.get( i ) );
+                for( Change c : changes.get( i ) ){
+                    w.write( document + "," + c.kind + "," + Diagnostics.Report.csv( c.path ) + "," +
+                        Diagnostics.Report.csv( c.newPath ) + "," + Diagnostics.Report.csv( c.attribute ) + "," +
+                        Diagnostics.Report.csv( c.oldValue ) + "," + Diagnostics.Report.csv( c.newValue ) + "\n" );
+                }
+            }
+        }
+
+        private void writeJSON( Writer w, Integer[] order ) throws IOException {
+            w.write( "[" );
+            for( int k = 0; k < order.length; ++k ){
+                int i = order[ k ];
+                w.write( (k == 0 ? "\n" : ",\n") + "  {\"document\": " + Diagnostics.Report.json( documents.get( i ) ) +
+                    ", \"changes\": [" );
+                List<Change> list = changes.get( i );
+                for( int n = 0; n < list.size(); ++n ){
+                    Change c = list.get( n );
+                    w.write( (n == 0 ? "\n" : ",\n") + "    {\"change\": \"" + c.kind + "\"" );
+                    if( c.path != null ) w.write( ", \"path\": " + Diagnostics.Report.json( c.path ) );
+                    if( c.newPath != null ) w.write( ", \"newPath\": " + Diagnostics.Report.json( c.newPath ) );
+                    if( c.kind == Kind.ATTRIBUTE ) w.write( ", \"attribute\": " + Diagnostics.Report.json( c.attribute ) );
+                    if( c.kind == Kind.ATTRIBUTE || c.kind == Kind.TEXT ){
+                        w.write( ", \"oldValue\": " + Diagnostics.Report.json( c.oldValue ) +
+                            ", \"newValue\": " + Diagnostics.Report.json( c.newValue ) );
+                    }
+                    w.write( "}" );
+                }
+                w.write( list.isEmpty() ? "]}" : "\n  ]}" );
+            }
+            w.write( "\n]\n" );
+        }
+    }
+}
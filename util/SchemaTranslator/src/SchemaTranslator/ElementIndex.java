@@ -0,0 +1,281 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/** Index from tag name to the elements of one document.
+ *
+ * Built once after parsing and kept up to date through DOM mutation events
+ * (insertion and removal of nodes) until detach() is called. Renaming an
+ * element does not generate a mutation event in all cases, so elements must
+ * be renamed through rename().
+ *
+ * Each element is labelled with a number increasing in document order
+ * (preorder); elements inserted later get labels between those of their
+ * neighbours, and all elements are relabelled in the rare case that there
+ * is no room. Elements with a tag name are kept sorted by label, and the
+ * elements below an element have the labels between its own and that of
+ * the next element after its subtree, so lookups cost O(log n + matches)
+ * rather than O(document), also for a scope other than the root.
+ *
+ * This class only depends on the JDK (it needs a DOM implementation
+ * supporting mutation events, such as the JDK's). */
+public final class ElementIndex {
+    /** Name matching all elements, as for Element.getElementsByTagName. */
+    public static final String ALL = "*";
+
+    /** Distance between labels given when (re)building the index. */
+    private static final long BUILD_GAP = 1L << 32;
+    /** Largest distance between labels given to inserted elements: small
+     * enough that many elements can be appended one by one at the same
+     * place before running out of room. */
+    private static final long INSERT_GAP = 1L << 16;
+
+    private final Document document;
+    /** Label of each indexed element. */
+    private final IdentityHashMap<Element, Long> labels = new IdentityHashMap<Element, Long>();
+    /** Elements by tag name (and ALL), by label. */
+    private final Map<String, TreeMap<Long, Element>> buckets = new HashMap<String, TreeMap<Long, Element>>();
+
+    private final EventListener inserted = new EventListener() {
+        public void handleEvent( Event evt ){
+            Node node = (Node) evt.getTarget();
+            // nodes added to a detached tree are indexed when it is attached
+            if( node.getNodeType() == Node.ELEMENT_NODE && isAttached( node ) ) insertTree( (Element) node );
+        }
+    };
+    private final EventListener removed = new EventListener() {
+        public void handleEvent( Event evt ){
+            removeTree( (Node) evt.getTarget() );
+        }
+    };
+
+    public ElementIndex( Document document ){
+        this.document = document;
+        build();
+        EventTarget target = (EventTarget) document;
+        target.addEventListener( "DOMNodeInserted", inserted, true );
+        target.addEventListener( "DOMNodeRemoved", removed, true );
+    }
+
+    /** Stop following changes to the document and release the index. Call
+     * when done with the document; the index must not be used afterwards.
+     * Listening to mutation events slows down all changes to the document. */
+    public void detach(){
+        EventTarget target = (EventTarget) document;
+        target.removeEventListener( "DOMNodeInserted", inserted, true );
+        target.removeEventListener( "DOMNodeRemoved", removed, true );
+        labels.clear();
+        buckets.clear();
+    }
+
+    /** Elements named name (or all for ALL) below scope, excluding scope
+     * itself, in document order.
+     *
+     * Unlike Element.getElementsByTagName, the list is a snapshot: it does
+     * not change when the document does. */
+    public NodeList getElementsByTagName( Element scope, String name ){
+        NavigableMap<Long, Element> range = below( scope, name );
+        if( range == null ) return snapshot( scope.getElementsByTagName( name ) );
+        return new ElementList( new ArrayList<Element>( range.values() ) );
+    }
+
+    /** First element of getElementsByTagName( scope, name ), or null. */
+    public Element getFirstElementByTagName( Element scope, String name ){
+        NavigableMap<Long, Element> range = below( scope, name );
+        if( range == null ) return (Element) scope.getElementsByTagName( name ).item( 0 );
+        Map.Entry<Long, Element> first = range.firstEntry();
+        return first == null ? null : first.getValue();
+    }
+
+    /** Rename elt, as Document.renameNode, and update the index.
+     *
+     * Returns the renamed element, which may be a new node (see
+     * Document.renameNode). */
+    public Element rename( Element elt, String namespaceURI, String qualifiedName ){
+        Long label = labels.get( elt );
+        if( label != null ) bucket( elt.getTagName() ).remove( label );
+        Element renamed = (Element) document.renameNode( elt, namespaceURI, qualifiedName );
+        if( renamed == elt ){
+            if( label != null ) bucket( renamed.getTagName() ).put( label, renamed );
+        }else{
+            // replaced: mutation events have updated the index, if attached
+            remove( elt );
+            if( isAttached( renamed ) && !labels.containsKey( renamed ) ) insertTree( renamed );
+        }
+        return renamed;
+    }
+
+    /** Indexed elements named name strictly below scope, or null if scope
+     * is not indexed (not attached to the document). */
+    private NavigableMap<Long, Element> below( Element scope, String name ){
+        Long from = labels.get( scope );
+        if( from == null ) return null;
+        TreeMap<Long, Element> bucket = buckets.get( name );
+        if( bucket == null ) return new TreeMap<Long, Element>();
+        Element end = following( scope );
+        if( end == null ) return bucket.tailMap( from, false );
+        return bucket.subMap( from, false, labels.get( end ), false );
+    }
+
+    private static NodeList snapshot( NodeList list ){
+        List<Element> elements = new ArrayList<Element>( list.getLength() );
+        for( int i = 0; i < list.getLength(); ++i ) elements.add( (Element) list.item( i ) );
+        return new ElementList( elements );
+    }
+
+    private boolean isAttached( Node node ){
+        Node n = node;
+        while( n.getParentNode() != null ) n = n.getParentNode();
+        return n == document;
+    }
+
+    /** Label all elements afresh. */
+    private void build(){
+        labels.clear();
+        buckets.clear();
+        Element root = document.getDocumentElement();
+        if( root != null ) label( root, new long[]{ 0 }, BUILD_GAP );
+    }
+
+    /** Label elt and the elements below it in preorder, after next[0],
+     * gap apart. */
+    private void label( Element elt, long[] next, long gap ){
+        next[ 0 ] += gap;
+        add( elt, next[ 0 ] );
+        for( Node child = elt.getFirstChild(); child != null; child = child.getNextSibling() ){
+            if( child.getNodeType() == Node.ELEMENT_NODE ) label( (Element) child, next, gap );
+        }
+    }
+
+    /** Index elt, just inserted into the document, and the elements below
+     * it. */
+    private void insertTree( Element elt ){
+        Element prev = preceding( elt ), next = following( elt );
+        Long lo = prev == null ? Long.valueOf( 0 ) : labels.get( prev );
+        Long hi = next == null ? Long.valueOf( Long.MAX_VALUE ) : labels.get( next );
+        if( lo == null || hi == null ){
+            build();    // neighbours not indexed: should not happen
+            return;
+        }
+        long count = countElements( elt );
+        long gap = Math.min( (hi - lo) / (count + 1), INSERT_GAP );
+        if( gap == 0 ){
+            build();    // no room: relabel everything, including elt
+            return;
+        }
+        label( elt, new long[]{ lo }, gap );
+    }
+
+    private static long countElements( Element elt ){
+        long n = 1;
+        for( Node child = elt.getFirstChild(); child != null; child = child.getNextSibling() ){
+            if( child.getNodeType() == Node.ELEMENT_NODE ) n += countElements( (Element) child );
+        }
+        return n;
+    }
+
+    /** The element before node in document order, not counting node's
+     * subtree, or null. */
+    private static Element preceding( Node node ){
+        for( Node s = node.getPreviousSibling(); s != null; s = s.getPreviousSibling() ){
+            if( s.getNodeType() == Node.ELEMENT_NODE ) return lastDescendant( (Element) s );
+        }
+        Node parent = node.getParentNode();
+        return parent != null && parent.getNodeType() == Node.ELEMENT_NODE ? (Element) parent : null;
+    }
+
+    private static Element lastDescendant( Element elt ){
+        for( Node c = elt.getLastChild(); c != null; c = c.getPreviousSibling() ){
+            if( c.getNodeType() == Node.ELEMENT_NODE ) return lastDescendant( (Element) c );
+        }
+        return elt;
+    }
+
+    /** The first element after node's subtree in document order, or null. */
+    private static Element following( Node node ){
+        for( Node n = node; n != null && n.getNodeType() == Node.ELEMENT_NODE; n = n.getParentNode() ){
+            for( Node s = n.getNextSibling(); s != null; s = s.getNextSibling() ){
+                if( s.getNodeType() == Node.ELEMENT_NODE ) return (Element) s;
+            }
+        }
+        return null;
+    }
+
+    private void removeTree( Node node ){
+        if( node.getNodeType() != Node.ELEMENT_NODE ) return;
+        remove( (Element) node );
+        for( Node child = node.getFirstChild(); child != null; child = child.getNextSibling() ){
+            removeTree( child );
+        }
+    }
+
+    private TreeMap<Long, Element> bucket( String name ){
+        TreeMap<Long, Element> bucket = buckets.get( name );
+        if( bucket == null ){
+            bucket = new TreeMap<Long, Element>();
+            buckets.put( name, bucket );
+        }
+        return bucket;
+    }
+
+    private void add( Element elt, long label ){
+        Long key = label;
+        labels.put( elt, key );
+        bucket( elt.getTagName() ).put( key, elt );
+        bucket( ALL ).put( key, elt );
+    }
+
+    private void remove( Element elt ){
+        Long label = labels.remove( elt );
+        if( label == null ) return;
+        bucket( elt.getTagName() ).remove( label );
+        bucket( ALL ).remove( label );
+    }
+
+    /** Fixed list of elements. */
+    private static final class ElementList implements NodeList {
+        private final List<Element> elements;
+        ElementList( List<Element> elements ){
+            this.elements = elements;
+        }
+        public Node item( int index ){
+            return index >= 0 && index < elements.size() ? elements.get( index ) : null;
+        }
+        public int getLength(){
+            return elements.size();
+        }
+    }
+}
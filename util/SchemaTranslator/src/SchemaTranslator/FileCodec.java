@@ -0,0 +1,220 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/** Compression of scenario files, chosen by file name suffix.
+ *
+ * Scenario files are named "*.xml", optionally followed by the suffix of
+ * one of the codecs supported by the JDK: ".gz" (gzip), ".zip" (a zip
+ * archive holding the scenario as its first file) or ".zz" (zlib). Files are
+ * decompressed and compressed while streaming; nothing is written to disk
+ * uncompressed.
+ *
+ * This class only depends on the JDK. */
+public enum FileCodec {
+    NONE( "" ), GZIP( ".gz" ), ZIP( ".zip" ), ZLIB( ".zz" );
+
+    private static final String XML_SUFFIX = ".xml";
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Compression ratio assumed where the uncompressed size is not
+     * recorded; scenario XML typically compresses about this well. */
+    private static final int ASSUMED_RATIO = 8;
+
+    private final String suffix;
+
+    FileCodec( String suffix ){
+        this.suffix = suffix;
+    }
+
+    /** Suffix following ".xml", e.g. ".gz" ("" for NONE). */
+    public String getSuffix(){
+        return suffix;
+    }
+
+    /** Codec of a scenario file, by name, or null if the name does not end
+     * with ".xml" and an optional codec suffix. */
+    public static FileCodec forName( String fileName ){
+        for( FileCodec codec : values() ){
+            if( fileName.endsWith( XML_SUFFIX + codec.suffix ) ) return codec;
+        }
+        return null;
+    }
+
+    /** True if fileName is that of a (possibly compressed) scenario. */
+    public static boolean isScenarioFile( String fileName ){
+        return forName( fileName ) != null;
+    }
+
+    /** fileName without the codec suffix, e.g. "a.xml" for "a.xml.gz". */
+    public static String plainName( String fileName ){
+        FileCodec codec = forName( fileName );
+        if( codec == null ) return fileName;
+        return fileName.substring( 0, fileName.length() - codec.suffix.length() );
+    }
+
+    /** Open file for reading, decompressing according to its name. */
+    public static InputStream openInput( Path file ) throws IOException {
+        return decode( file.getFileName().toString(), Files.newInputStream( file ) );
+    }
+
+    /** Wrap in, the content of a file named fileName, to decompress it
+     * according to the name. in is closed with the returned stream. */
+    public static InputStream decode( String fileName, InputStream in ) throws IOException {
+        FileCodec codec = forName( fileName );
+        InputStream buffered = new BufferedInputStream( in, BUFFER_SIZE );
+        try{
+            if( codec == GZIP ) return new GZIPInputStream( buffered, BUFFER_SIZE );
+            if( codec == ZLIB ) return new InflaterInputStream( buffered );
+            if( codec == ZIP ){
+                ZipInputStream zip = new ZipInputStream( buffered );
+                ZipEntry entry = zip.getNextEntry();
+                while( entry != null && entry.isDirectory() ) entry = zip.getNextEntry();
+                if( entry == null ) throw new IOException( fileName + ": no file in zip archive" );
+                return zip;
+            }
+            return buffered;
+        }catch( IOException e ){
+            buffered.close();
+            throw e;
+        }
+    }
+
+    /** Size of the content of file, uncompressed, without decompressing it:
+     * for gzip from the size recorded at the end of the file (which is
+     * modulo 4 GiB, but scenarios are far smaller),
+     * for zip from the entry; for zlib, which records no size, and zip
+     * entries of unknown size it is estimated from the compressed size. */
+    public static long uncompressedSize( Path file ) throws IOException {
+        FileCodec codec = forName( file.getFileName().toString() );
+        long size = Files.size( file );
+        if( codec == GZIP && size >= 4 ){
+            FileChannel channel = FileChannel.open( file, StandardOpenOption.READ );
+            try{
+                ByteBuffer trailer = ByteBuffer.allocate( 4 ).order( ByteOrder.LITTLE_ENDIAN );
+                while( trailer.hasRemaining() ){
+                    if( channel.read( trailer, size - 4 + trailer.position() ) < 0 ) break;
+                }
+                return Math.max( trailer.getInt( 0 ) & 0xFFFFFFFFL, size );
+            }finally{
+                channel.close();
+            }
+        }
+        if( codec == ZIP ){
+            ZipFile zip = new ZipFile( file.toFile() );
+            try{
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while( entries.hasMoreElements() ){
+                    ZipEntry entry = entries.nextElement();
+                    if( entry.isDirectory() ) continue;
+                    if( entry.getSize() >= 0 ) return entry.getSize();
+                    break;
+                }
+            }finally{
+                zip.close();
+            }
+        }
+        if( codec == NONE ) return size;
+        return size * ASSUMED_RATIO;
+    }
+
+    /** Copy input to output, creating the folders of output as needed
+     * (nothing is done if they are the same file). If
+     * both are named with the same codec, the bytes are copied unchanged by
+     * the file system (FileChannel.transferTo); otherwise input is
+     * decompressed and output compressed according to their names. */
+    public static void copy( Path input, Path output ) throws IOException {
+        Path parent = output.toAbsolutePath().getParent();
+        if( parent != null ) Files.createDirectories( parent );
+        if( Files.exists( output ) && Files.isSameFile( input, output ) ) return;
+        if( forName( input.getFileName().toString() ) == forName( output.getFileName().toString() ) ){
+            FileChannel from = FileChannel.open( input, StandardOpenOption.READ );
+            try{
+                FileChannel to = FileChannel.open( output, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING );
+                try{
+                    long size = from.size();
+                    for( long pos = 0; pos < size; ){
+                        pos += from.transferTo( pos, size - pos, to );
+                    }
+                }finally{
+                    to.close();
+                }
+            }finally{
+                from.close();
+            }
+        }else{
+            InputStream in = openInput( input );
+            try{
+                OutputStream out = openOutput( output );
+                try{
+                    byte[] buffer = new byte[ BUFFER_SIZE ];
+                    int n;
+                    while( (n = in.read( buffer )) > 0 ) out.write( buffer, 0, n );
+                }finally{
+                    out.close();
+                }
+            }finally{
+                in.close();
+            }
+        }
+    }
+
+    /** Open file for writing, compressing according to its name. Closing
+     * the stream finishes the compressed data. */
+    public static OutputStream openOutput( Path file ) throws IOException {
+        String fileName = file.getFileName().toString();
+        FileCodec codec = forName( fileName );
+        OutputStream out = Files.newOutputStream( file );
+        try{
+            if( codec == GZIP ) return new GZIPOutputStream( out, BUFFER_SIZE );
+            if( codec == ZLIB ) return new DeflaterOutputStream( new BufferedOutputStream( out, BUFFER_SIZE ) );
+            if( codec == ZIP ){
+                ZipOutputStream zip = new ZipOutputStream( new BufferedOutputStream( out, BUFFER_SIZE ) );
+                zip.putNextEntry( new ZipEntry( plainName( fileName ) ) );
+                return zip;
+            }
+            return new BufferedOutputStream( out, BUFFER_SIZE );
+        }catch( IOException e ){
+            out.close();
+            throw e;
+        }
+    }
+}
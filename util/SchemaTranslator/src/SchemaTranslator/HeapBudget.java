@@ -0,0 +1,141 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import java.util.ArrayDeque;
+
+/** Admission control for documents translated in parallel, by estimated
+ * heap use.
+ *
+ * A DOM takes many times the size of its XML (about 14 times with the
+ * JDK's parser once all nodes are expanded), so a few large scenarios
+ * translated at once can exhaust the heap. Before building a DOM a worker
+ * acquires the document's estimated size (see estimate) and releases it
+ * once done with the document; a worker waits while the estimates of the
+ * documents being translated would exceed the budget.
+ *
+ * Workers are admitted in the order they ask, except that while the first
+ * in line does not fit, later ones which do may go ahead, so small
+ * documents are not held up behind a large one. To keep a large document
+ * from waiting indefinitely, it is overtaken at most maxOvertakes times;
+ * then nothing more is admitted until the memory has been released for it.
+ * One larger than the whole budget is admitted alone, once all others have
+ * finished. Small documents, the common case, fit side by side and keep
+ * all workers busy.
+ *
+ * This class only depends on the JDK. */
+public final class HeapBudget {
+    /** Heap bytes per byte of XML used by default (see estimate). */
+    public static final double DEFAULT_FACTOR = 15;
+    /** Part of the maximum heap size used by forMaxHeap; the rest is left
+     * for compiled schemas, caches, output buffers and the like. */
+    private static final double HEAP_FRACTION = 0.75;
+    /** Times the first worker in line may be overtaken by default. */
+    private static final int MAX_OVERTAKES = 32;
+
+    /** A waiting worker. */
+    private static final class Ticket {
+        final long amount;
+        /** Workers admitted before this one while it was first in line. */
+        int overtaken = 0;
+        Ticket( long amount ){
+            this.amount = amount;
+        }
+    }
+
+    private final long capacity;
+    private final double factor;
+    private final int maxOvertakes;
+    private long used = 0;
+    /** Workers waiting to be admitted, in order of arrival. */
+    private final ArrayDeque<Ticket> waiting = new ArrayDeque<Ticket>();
+
+    /** Budget of capacity bytes; documents are estimated to need factor
+     * heap bytes per byte of XML. */
+    public HeapBudget( long capacity, double factor ){
+        this( capacity, factor, MAX_OVERTAKES );
+    }
+
+    HeapBudget( long capacity, double factor, int maxOvertakes ){
+        if( capacity <= 0 || factor <= 0 ){
+            throw new IllegalArgumentException( "capacity and factor must be positive" );
+        }
+        if( maxOvertakes < 0 ) throw new IllegalArgumentException( "maxOvertakes must not be negative" );
+        this.capacity = capacity;
+        this.factor = factor;
+        this.maxOvertakes = maxOvertakes;
+    }
+
+    /** Budget of a fixed part of the maximum heap size (-Xmx). */
+    public static HeapBudget forMaxHeap( double factor ){
+        return new HeapBudget( (long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION), factor );
+    }
+
+    public long getCapacity(){
+        return capacity;
+    }
+
+    /** Estimated heap use of a document of xmlBytes bytes of XML. Documents
+     * which are kept twice (e.g. the original for --diff-report) should pass
+     * copies = 2. */
+    public long estimate( long xmlBytes, int copies ){
+        return (long) Math.ceil( xmlBytes * factor * copies );
+    }
+
+    /** Wait until bytes can be used without exceeding the budget, or nothing
+     * else is in use, and it is this worker's turn (see class
+     * documentation). Returns the amount to pass to release. */
+    public synchronized long acquire( long bytes ) throws InterruptedException {
+        Ticket ticket = new Ticket( Math.min( Math.max( bytes, 0 ), capacity ) );
+        waiting.addLast( ticket );
+        try{
+            while( !mayGo( ticket ) ){
+                wait();
+            }
+        }catch( InterruptedException e ){
+            waiting.remove( ticket );
+            notifyAll();        // the next in line may now be first
+            throw e;
+        }
+        Ticket first = waiting.peekFirst();
+        if( first != ticket ) first.overtaken += 1;
+        waiting.remove( ticket );
+        used += ticket.amount;
+        notifyAll();            // the next in line may fit too
+        return ticket.amount;
+    }
+
+    /** True if ticket fits and no worker ahead of it does, unless the first
+     * in line has been overtaken too often. */
+    private boolean mayGo( Ticket ticket ){
+        if( used + ticket.amount > capacity ) return false;
+        for( Ticket t : waiting ){
+            if( t == ticket ) return true;
+            if( used + t.amount <= capacity || waiting.peekFirst().overtaken >= maxOvertakes ) return false;
+        }
+        throw new IllegalStateException( "ticket not waiting" );
+    }
+
+    /** Give back an amount returned by acquire. */
+    public synchronized void release( long amount ){
+        used -= amount;
+        notifyAll();
+    }
+}
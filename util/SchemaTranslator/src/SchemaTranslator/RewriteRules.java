@@ -0,0 +1,324 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/** Mechanical rewrites of translation steps, declared as rules on paths.
+ *
+ * Each step (by the version translated from) may declare rules; these are
+ * applied at the start of the step, before its code (see
+ * Translator.translateAndValidate). Paths name an element, optionally with
+ * some of its ancestors, and for attribute rules an attribute:
+ *
+ *   "element", "parent/element", "grandparent/parent/element@attribute"
+ *
+ * Rules of several steps are applied together in one traversal when the
+ * steps between them have no code (declared with ruleOnly). The result is
+ * the same as applying each step's rules in turn: the rules of a step see
+ * the ancestors' names as they were for that step, and elements created by
+ * a rule are only seen by the rules of later steps.
+ *
+ * Rules are declared once (e.g. in a static field); the object may then be
+ * shared between threads. This class only depends on the JDK. */
+public final class RewriteRules {
+    private enum Action {
+        RENAME_ELEMENT, REMOVE_ATTRIBUTE, RENAME_ATTRIBUTE, REPLACE_VALUE,
+        ATTRIBUTE_TO_ELEMENT, ATTRIBUTE_TO_BETA_MEAN, APPEND_ELEMENT;
+    }
+
+    private static final Pattern SLASH = Pattern.compile( "/" );
+
+    private static final class Rule {
+        final String element;
+        final String[] ancestors;   // nearest first
+        final String attribute;     // null unless an attribute rule
+        final Action action;
+        final String[] args;
+        Rule( String path, boolean attributeRule, Action action, String... args ){
+            int at = path.indexOf( '@' );
+            if( attributeRule != (at >= 0) ){
+                throw new IllegalArgumentException( (attributeRule ? "expected" : "unexpected") +
+                    " attribute in rule path: " + path );
+            }
+            String elements = at >= 0 ? path.substring( 0, at ) : path;
+            String[] names = SLASH.split( elements, -1 );
+            for( String name : names ){
+                if( name.isEmpty() ) throw new IllegalArgumentException( "bad rule path: " + path );
+            }
+            element = names[ names.length - 1 ];
+            ancestors = new String[ names.length - 1 ];
+            for( int i = 0; i < ancestors.length; ++i ) ancestors[ i ] = names[ names.length - 2 - i ];
+            attribute = at >= 0 ? path.substring( at + 1 ) : null;
+            if( attribute != null && attribute.isEmpty() ){
+                throw new IllegalArgumentException( "bad rule path: " + path );
+            }
+            this.action = action;
+            this.args = args;
+        }
+    }
+
+    /** Rules of each step, in order of declaration. */
+    private final Map<Integer, List<Rule>> rules = new TreeMap<Integer, List<Rule>>();
+    /** Steps which have rules but no code. */
+    private final Map<Integer, Boolean> ruleOnly = new HashMap<Integer, Boolean>();
+    private int step = -1;
+    /** Compiled visitors by sequence of steps; a visitor holds no state
+     * between traversals, so documents share them. */
+    private final ConcurrentMap<List<Integer>, Visitor> visitors = new ConcurrentHashMap<List<Integer>, Visitor>();
+
+    /** Declare rules of the step from fromVersion, which also has code. */
+    public RewriteRules step( int fromVersion ){
+        step = fromVersion;
+        ruleOnly.remove( fromVersion );
+        return this;
+    }
+
+    /** Declare rules of the step from fromVersion, which has no other code. */
+    public RewriteRules ruleOnly( int fromVersion ){
+        step = fromVersion;
+        ruleOnly.put( fromVersion, Boolean.TRUE );
+        return this;
+    }
+
+    /** True if the step from fromVersion has rules. */
+    public boolean hasRules( int fromVersion ){
+        return rules.containsKey( fromVersion );
+    }
+
+    /** True if the step from fromVersion is fully described by its rules. */
+    public boolean isRuleOnly( int fromVersion ){
+        return ruleOnly.containsKey( fromVersion );
+    }
+
+    private RewriteRules add( Rule rule ){
+        if( step < 0 ) throw new IllegalStateException( "declare the step before its rules" );
+        List<Rule> list = rules.get( step );
+        if( list == null ){
+            list = new ArrayList<Rule>();
+            rules.put( step, list );
+        }
+        list.add( rule );
+        visitors.clear();
+        return this;
+    }
+
+    /** Rename elements at path to name. */
+    public RewriteRules renameElement( String path, String name ){
+        return add( new Rule( path, false, Action.RENAME_ELEMENT, name ) );
+    }
+
+    /** Remove the attribute at path (if present). */
+    public RewriteRules removeAttribute( String path ){
+        return add( new Rule( path, true, Action.REMOVE_ATTRIBUTE ) );
+    }
+
+    /** Rename the attribute at path (if present) to name. */
+    public RewriteRules renameAttribute( String path, String name ){
+        return add( new Rule( path, true, Action.RENAME_ATTRIBUTE, name ) );
+    }
+
+    /** Change the attribute at path to newValue where its value is
+     * oldValue. */
+    public RewriteRules replaceValue( String path, String oldValue, String newValue ){
+        return add( new Rule( path, true, Action.REPLACE_VALUE, oldValue, newValue ) );
+    }
+
+    /** Replace the attribute at path with a last child element of the same
+     * name holding the value in its "value" attribute (empty if the
+     * attribute is missing). */
+    public RewriteRules attributeToElement( String path ){
+        return add( new Rule( path, true, Action.ATTRIBUTE_TO_ELEMENT ) );
+    }
+
+    /** Like attributeToElement, but the value is the "mean" of a beta
+     * distribution with "variance" 0. */
+    public RewriteRules attributeToBetaMean( String path ){
+        return add( new Rule( path, true, Action.ATTRIBUTE_TO_BETA_MEAN ) );
+    }
+
+    /** Append an element name, with attribute set to value, to elements at
+     * path. */
+    public RewriteRules appendElement( String path, String name, String attribute, String value ){
+        return add( new Rule( path, false, Action.APPEND_ELEMENT, name, attribute, value ) );
+    }
+
+    /** Rules of a sequence of steps, compiled to be applied in one
+     * traversal. */
+    public final class Visitor {
+        private final int steps;
+        /** Rules by element name, then by position of the step (null where
+         * the step has none). */
+        private final Map<String, List<List<Rule>>> byName = new HashMap<String, List<List<Rule>>>();
+
+        private Visitor( int[] fromVersions ){
+            steps = fromVersions.length;
+            for( int k = 0; k < steps; ++k ){
+                List<Rule> list = rules.get( fromVersions[ k ] );
+                if( list == null ) continue;
+                for( Rule rule : list ){
+                    List<List<Rule>> perStep = byName.get( rule.element );
+                    if( perStep == null ){
+                        perStep = new ArrayList<List<Rule>>( Collections.<List<Rule>>nCopies( steps, null ) );
+                        byName.put( rule.element, perStep );
+                    }
+                    if( perStep.get( k ) == null ) perStep.set( k, new ArrayList<Rule>( 2 ) );
+                    perStep.get( k ).add( rule );
+                }
+            }
+        }
+
+        /** Apply the rules to root and all elements below it. Renamed
+         * elements are updated in index; metrics (may be null) counts them.
+         * Returns the number of rules applied. */
+        public int apply( Element root, ElementIndex index, TranslationMetrics.Recorder metrics ){
+            if( byName.isEmpty() ) return 0;
+            Pass pass = new Pass( root.getOwnerDocument(), index, metrics );
+            pass.visit( root, -1 );
+            return pass.applied;
+        }
+
+        /** State of one traversal. */
+        private final class Pass {
+            final Document document;
+            final ElementIndex index;
+            final TranslationMetrics.Recorder metrics;
+            /** Names of the ancestors of the current element before each
+             * step; nearest last. */
+            final ArrayList<String[]> ancestors = new ArrayList<String[]>();
+            /** Elements created by rules, with the position of the step. */
+            final IdentityHashMap<Node, Integer> created = new IdentityHashMap<Node, Integer>();
+            int applied = 0;
+
+            Pass( Document document, ElementIndex index, TranslationMetrics.Recorder metrics ){
+                this.document = document;
+                this.index = index;
+                this.metrics = metrics;
+            }
+
+            void visit( Element elt, int createdAt ){
+                String[] names = new String[ steps ];
+                for( int k = 0; k < steps; ++k ){
+                    names[ k ] = elt.getNodeName();
+                    if( k <= createdAt ) continue;
+                    List<List<Rule>> perStep = byName.get( names[ k ] );
+                    if( perStep == null || perStep.get( k ) == null ) continue;
+                    for( Rule rule : perStep.get( k ) ){
+                        if( !ancestorsMatch( rule, k ) ) continue;
+                        elt = apply( rule, elt, k );
+                    }
+                }
+                ancestors.add( names );
+                for( Node child = elt.getFirstChild(); child != null; child = child.getNextSibling() ){
+                    if( child.getNodeType() == Node.ELEMENT_NODE ){
+                        Integer c = created.get( child );
+                        visit( (Element) child, c == null ? createdAt : c );
+                    }
+                }
+                ancestors.remove( ancestors.size() - 1 );
+            }
+
+            boolean ancestorsMatch( Rule rule, int k ){
+                int n = ancestors.size();
+                if( rule.ancestors.length > n ) return false;
+                for( int i = 0; i < rule.ancestors.length; ++i ){
+                    if( !rule.ancestors[ i ].equals( ancestors.get( n - 1 - i )[ k ] ) ) return false;
+                }
+                return true;
+            }
+
+            Element apply( Rule rule, Element elt, int k ){
+                switch( rule.action ){
+                case RENAME_ELEMENT:
+                    if( metrics != null ) metrics.beginRename();
+                    try{
+                        elt = index.rename( elt, null, rule.args[ 0 ] );
+                    }finally{
+                        if( metrics != null ) metrics.endRename();
+                    }
+                    break;
+                case REMOVE_ATTRIBUTE:
+                    if( !elt.hasAttribute( rule.attribute ) ) return elt;
+                    elt.removeAttribute( rule.attribute );
+                    break;
+                case RENAME_ATTRIBUTE:
+                    if( elt.getAttributeNode( rule.attribute ) == null ) return elt;
+                    elt.setAttribute( rule.args[ 0 ], elt.getAttribute( rule.attribute ) );
+                    elt.removeAttribute( rule.attribute );
+                    break;
+                case REPLACE_VALUE:
+                    if( !elt.getAttribute( rule.attribute ).equals( rule.args[ 0 ] ) ) return elt;
+                    elt.setAttribute( rule.attribute, rule.args[ 1 ] );
+                    break;
+                case ATTRIBUTE_TO_ELEMENT:
+                case ATTRIBUTE_TO_BETA_MEAN: {
+                    Element child = document.createElement( rule.attribute );
+                    if( rule.action == Action.ATTRIBUTE_TO_ELEMENT ){
+                        child.setAttribute( "value", elt.getAttribute( rule.attribute ) );
+                    }else{
+                        child.setAttribute( "mean", elt.getAttribute( rule.attribute ) );
+                        child.setAttribute( "variance", "0" );
+                    }
+                    elt.removeAttribute( rule.attribute );
+                    elt.appendChild( child );
+                    created.put( child, k );
+                    break;
+                }
+                case APPEND_ELEMENT: {
+                    Element child = document.createElement( rule.args[ 0 ] );
+                    child.setAttribute( rule.args[ 1 ], rule.args[ 2 ] );
+                    elt.appendChild( child );
+                    created.put( child, k );
+                    break;
+                }
+                }
+                ++applied;
+                return elt;
+            }
+        }
+    }
+
+    /** Compile the rules of the steps from fromVersions (in order) into one
+     * visitor. Visitors are cached: each sequence is compiled once. */
+    public Visitor compile( int[] fromVersions ){
+        List<Integer> key = new ArrayList<Integer>( fromVersions.length );
+        for( int v : fromVersions ) key.add( v );
+        Visitor visitor = visitors.get( key );
+        if( visitor == null ){
+            visitor = new Visitor( fromVersions );
+            Visitor existing = visitors.putIfAbsent( key, visitor );
+            if( existing != null ) visitor = existing;
+        }
+        return visitor;
+    }
+}
@@ -0,0 +1,380 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Writes a scenario document as UTF-8 XML in one walk over the DOM.
+ *
+ * The output is the same, byte for byte, as that of the JDK's identity
+ * Transformer (method xml, encoding UTF-8, indent 2) applied after removing
+ * white-space-only text nodes and normalizing the document, which is how
+ * translated scenarios used to be written; neither the document nor its
+ * white-space is modified here. In compact mode nothing is indented, as
+ * with the Transformer without indentation.
+ *
+ * Only the content scenarios consist of is handled: elements, text and
+ * comments inside the root element, with no element having both text and
+ * other children. Use canWrite() first and write other documents with a
+ * Transformer.
+ *
+ * This class only depends on the JDK. */
+public final class ScenarioSerializer {
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+    private static final String LINE_SEPARATOR = System.getProperty( "line.separator" );
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+    private static final int INDENT_AMOUNT = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** True if document can be written by this class. This only reads the
+     * document. */
+    public static boolean canWrite( Document document ){
+        if( document.getXmlStandalone() || !"1.0".equals( document.getXmlVersion() ) ) return false;
+        Element root = null;
+        for( Node n = document.getFirstChild(); n != null; n = n.getNextSibling() ){
+            if( n.getNodeType() != Node.ELEMENT_NODE || root != null ) return false;
+            root = (Element) n;
+        }
+        return root != null && canWrite( root );
+    }
+
+    private static boolean canWrite( Element elt ){
+        NamedNodeMap attrs = elt.getAttributes();
+        for( int i = 0; i < attrs.getLength(); ++i ){
+            Node attr = attrs.item( i );
+            String name = attr.getNodeName();
+            // xml:space changes indentation; attributes in a namespace are
+            // given generated prefixes by the Transformer
+            if( name.equals( "xml:space" ) || !validSurrogates( attr.getNodeValue() ) ) return false;
+            String uri = attr.getNamespaceURI();
+            if( !name.startsWith( "xmlns" ) && uri != null && uri.length() > 0 ) return false;
+        }
+        boolean hasText = false, hasOther = false;
+        for( Node n = elt.getFirstChild(); n != null; n = n.getNextSibling() ){
+            switch( n.getNodeType() ){
+                case Node.ELEMENT_NODE:
+                    if( !canWrite( (Element) n ) ) return false;
+                    hasOther = true;
+                    break;
+                case Node.COMMENT_NODE:
+                    if( !validSurrogates( n.getNodeValue() ) ) return false;
+                    hasOther = true;
+                    break;
+                case Node.TEXT_NODE:
+                    String text = n.getNodeValue();
+                    if( isBlank( text ) ) break;
+                    if( isWhitespace( text ) || !validSurrogates( text ) ) return false;
+                    hasText = true;
+                    break;
+                default:
+                    return false;   // CDATA, entity references, PIs
+            }
+        }
+        return !(hasText && hasOther);
+    }
+
+    /** True for text of spaces, tabs and line breaks only: text nodes which
+     * the old whitespace stripping removed. */
+    private static boolean isBlank( String text ){
+        for( int i = 0; i < text.length(); ++i ){
+            char c = text.charAt( i );
+            if( c != ' ' && c != '\t' && c != '\n' && c != '\r' ) return false;
+        }
+        return true;
+    }
+
+    /** True for text of white-space of any kind, which may or may not have
+     * been stripped depending on the definition used. */
+    private static boolean isWhitespace( String text ){
+        for( int i = 0; i < text.length(); ++i ){
+            char c = text.charAt( i );
+            if( c > ' ' && !Character.isWhitespace( c ) && !Character.isSpaceChar( c ) ) return false;
+        }
+        return true;
+    }
+
+    private static boolean validSurrogates( String s ){
+        for( int i = 0; i < s.length(); ++i ){
+            char c = s.charAt( i );
+            if( Character.isHighSurrogate( c ) ){
+                if( i + 1 >= s.length() || !Character.isLowSurrogate( s.charAt( i + 1 ) ) ) return false;
+                ++i;
+            }else if( Character.isLowSurrogate( c ) ){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write document to out, which is flushed but not closed. The document
+     * must satisfy canWrite(). */
+    public static void write( Document document, OutputStream out, boolean indent ) throws IOException {
+        Writer writer = new BufferedWriter( new OutputStreamWriter( out, UTF8 ), BUFFER_SIZE );
+        write( document, writer, indent );
+    }
+
+    /** Write document to out, which is flushed but not closed. The document
+     * must satisfy canWrite(). */
+    public static void write( Document document, Writer out, boolean indent ) throws IOException {
+        new ScenarioSerializer( out, indent ).writeDocument( document );
+        out.flush();
+    }
+
+    private final Writer out;
+    private final boolean indent;
+
+    // In-scope namespace declarations: URIs by prefix, innermost last, and
+    // the prefixes declared by each open element.
+    private final Map<String, List<String>> namespaces = new HashMap<String, List<String>>();
+    private final List<List<String>> declared = new ArrayList<List<String>>();
+
+    // Attributes of the element being started
+    private final List<String> attrNames = new ArrayList<String>();
+    private final List<String> attrValues = new ArrayList<String>();
+
+    private ScenarioSerializer( Writer out, boolean indent ){
+        this.out = out;
+        this.indent = indent;
+        namespaces.put( "", newList( "" ) );
+        namespaces.put( "xml", newList( XML_NS ) );
+    }
+
+    private static List<String> newList( String uri ){
+        List<String> list = new ArrayList<String>();
+        list.add( uri );
+        return list;
+    }
+
+    private void writeDocument( Document document ) throws IOException {
+        out.write( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>" );
+        if( indent ) out.write( LINE_SEPARATOR );
+        writeElement( document.getDocumentElement(), 1 );
+        if( indent ) out.write( LINE_SEPARATOR );
+    }
+
+    /** Write elt, at the given depth (1 for the root element). */
+    private void writeElement( Element elt, int depth ) throws IOException {
+        if( depth > 1 ) newLine( depth - 1 );
+        String name = elt.getNodeName();
+        out.write( '<' );
+        out.write( name );
+        declared.add( new ArrayList<String>() );
+        writeAttributes( elt, name );
+
+        // Text is the concatenation of non-blank text nodes, as if
+        // normalized; otherwise children are elements and comments.
+        String text = null;
+        boolean hasChildren = false;
+        for( Node n = elt.getFirstChild(); n != null; n = n.getNextSibling() ){
+            if( n.getNodeType() == Node.TEXT_NODE ){
+                String value = n.getNodeValue();
+                if( !isBlank( value ) ) text = text == null ? value : text + value;
+            }else{
+                hasChildren = true;
+            }
+        }
+
+        if( text != null ){
+            out.write( '>' );
+            writeText( text );
+        }else if( hasChildren ){
+            out.write( '>' );
+            for( Node n = elt.getFirstChild(); n != null; n = n.getNextSibling() ){
+                if( n.getNodeType() == Node.ELEMENT_NODE ){
+                    writeElement( (Element) n, depth + 1 );
+                }else if( n.getNodeType() == Node.COMMENT_NODE ){
+                    newLine( depth );
+                    writeComment( n.getNodeValue() );
+                }
+            }
+            newLine( depth - 1 );
+        }else{
+            out.write( "/>" );
+        }
+        if( text != null || hasChildren ){
+            out.write( "</" );
+            out.write( name );
+            out.write( '>' );
+        }
+
+        for( String prefix : declared.remove( declared.size() - 1 ) ){
+            List<String> uris = namespaces.get( prefix );
+            uris.remove( uris.size() - 1 );
+        }
+    }
+
+    /** Write the attributes of elt, with namespace declarations added where
+     * needed, in the order the Transformer uses: declarations present as
+     * attributes, other attributes, then the element's namespace. */
+    private void writeAttributes( Element elt, String name ) throws IOException {
+        attrNames.clear();
+        attrValues.clear();
+        NamedNodeMap attrs = elt.getAttributes();
+        int length = attrs.getLength();
+        for( int i = 0; i < length; ++i ){
+            Node attr = attrs.item( i );
+            String attrName = attr.getNodeName();
+            if( attrName.startsWith( "xmlns" ) ){
+                int colon = attrName.lastIndexOf( ':' );
+                declare( colon > 0 ? attrName.substring( colon + 1 ) : "", attr.getNodeValue() );
+            }
+        }
+        for( int i = 0; i < length; ++i ){
+            Node attr = attrs.item( i );
+            String attrName = attr.getNodeName();
+            if( attrName.startsWith( "xmlns" ) ) continue;
+            int colon = attrName.indexOf( ':' );
+            if( colon >= 0 && !isDeclared( attrName.substring( 0, colon ) ) )
+                throw new IOException( "Namespace for prefix '" + attrName.substring( 0, colon ) + "' has not been declared." );
+            addAttribute( attrName, attr.getNodeValue() );
+        }
+        String uri = elt.getNamespaceURI();
+        if( uri != null ){
+            int colon = name.lastIndexOf( ':' );
+            declare( colon > 0 ? name.substring( 0, colon ) : "", uri );
+        }else if( elt.getLocalName() != null ){
+            declare( "", "" );
+        }
+
+        for( int i = 0; i < attrNames.size(); ++i ){
+            out.write( ' ' );
+            out.write( attrNames.get( i ) );
+            out.write( "=\"" );
+            writeAttributeValue( attrValues.get( i ) );
+            out.write( '"' );
+        }
+    }
+
+    /** Map prefix to uri, adding a declaration unless already in scope. */
+    private void declare( String prefix, String uri ){
+        if( prefix.startsWith( "xml" ) ) return;
+        List<String> uris = namespaces.get( prefix );
+        if( uris == null ){
+            uris = new ArrayList<String>();
+            namespaces.put( prefix, uris );
+        }else if( !uris.isEmpty() && uris.get( uris.size() - 1 ).equals( uri ) ){
+            return;
+        }
+        uris.add( uri );
+        declared.get( declared.size() - 1 ).add( prefix );
+        if( prefix.length() == 0 ) addAttribute( "xmlns", uri );
+        else if( uri.length() > 0 ) addAttribute( "xmlns:" + prefix, uri );
+    }
+
+    private boolean isDeclared( String prefix ){
+        List<String> uris = namespaces.get( prefix );
+        return uris != null && !uris.isEmpty();
+    }
+
+    /** Add an attribute, replacing the value of one of the same name. */
+    private void addAttribute( String name, String value ){
+        int i = attrNames.indexOf( name );
+        if( i >= 0 ){
+            attrValues.set( i, value );
+        }else{
+            attrNames.add( name );
+            attrValues.add( value );
+        }
+    }
+
+    private void newLine( int depth ) throws IOException {
+        if( !indent ) return;
+        out.write( LINE_SEPARATOR );
+        for( int i = depth * INDENT_AMOUNT; i > 0; --i ) out.write( ' ' );
+    }
+
+    private void writeText( String text ) throws IOException {
+        int length = text.length();
+        for( int i = 0; i < length; ++i ){
+            char c = text.charAt( i );
+            switch( c ){
+                case '<': out.write( "&lt;" ); break;
+                case '>': out.write( "&gt;" ); break;
+                case '&': out.write( "&amp;" ); break;
+                case '\n': out.write( LINE_SEPARATOR ); break;
+                case '\r': out.write( "&#13;" ); break;
+                case '\t': out.write( c ); break;
+                default:
+                    if( c < 0x20 || (c >= 0x7F && c <= 0x9F) ){
+                        writeCharRef( c );
+                    }else if( Character.isHighSurrogate( c ) ){
+                        writeCharRef( Character.toCodePoint( c, text.charAt( ++i ) ) );
+                    }else{
+                        out.write( c );
+                    }
+            }
+        }
+    }
+
+    private void writeAttributeValue( String value ) throws IOException {
+        int length = value.length();
+        for( int i = 0; i < length; ++i ){
+            char c = value.charAt( i );
+            switch( c ){
+                case '<': out.write( "&lt;" ); break;
+                case '>': out.write( "&gt;" ); break;
+                case '&': out.write( "&amp;" ); break;
+                case '"': out.write( "&quot;" ); break;
+                default:
+                    if( c < 0x20 ){
+                        writeCharRef( c );
+                    }else if( Character.isHighSurrogate( c ) ){
+                        writeCharRef( Character.toCodePoint( c, value.charAt( ++i ) ) );
+                    }else{
+                        out.write( c );
+                    }
+            }
+        }
+    }
+
+    private void writeCharRef( int codePoint ) throws IOException {
+        out.write( "&#" );
+        out.write( Integer.toString( codePoint ) );
+        out.write( ';' );
+    }
+
+    /** Write a comment, separating consecutive dashes and a final dash from
+     * the delimiters as the Transformer does. */
+    private void writeComment( String text ) throws IOException {
+        out.write( "<!--" );
+        int length = text.length();
+        for( int i = 0; i < length; ++i ){
+            char c = text.charAt( i );
+            if( c == '-' && i > 0 && text.charAt( i - 1 ) == '-' ) out.write( ' ' );
+            out.write( c );
+        }
+        if( length > 0 && text.charAt( length - 1 ) == '-' ) out.write( ' ' );
+        out.write( "-->" );
+    }
+}
@@ -0,0 +1,158 @@
+package SchemaTranslator
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.StringReader
+import java.io.StringWriter
+import java.util.ArrayList
+import javax.xml.transform.Result
+import javax.xml.transform.stream.StreamResult
+import org.w3c.dom.Document
+import org.xml.sax.InputSource
+
+/** Options of ScenarioTranslator: those of Options which affect the
+ * translated document, copied when constructed, so that later changes to
+ * the Options (which is mutable, and shared with the command-line tool)
+ * have no effect. Folders, threads, database settings and report sinks
+ * (--diagnostics, --diff-report, --metrics) do not apply to in-memory
+ * translation and are not kept; the schema folder is, for validation. */
+class TranslationOptions(options: Options) {
+    val targetVersion: Int = options.targetVersion
+    val doValidation: Boolean = options.doValidation
+    val doTranslation: Boolean = options.doTranslation
+    val doODTTranslation: Boolean = options.doODTTranslation
+    val compactOutput: Boolean = options.compactOutput
+    val schemaFolder: File = options.schemaFolder
+    val latestSchema: SchemaName = options.latestSchema
+    val maxDensBug: BugCorrectionBehaviour = options.maxDensBug
+    val iptiSpOption: IptiSpBehaviour = options.iptiSpOption
+    val iptiROAR: IptiReportOnlyAtRiskBehaviour = options.iptiROAR
+    val ITN29Translation: ITN29ParameterTranslation = options.ITN29Translation
+    val hsTreatmentTranslation: HSTreatmentOption = options.hsTreatmentTranslation
+
+    /** A new Options with these values and no report sinks. */
+    fun toOptions(): Options {
+        val o = Options()
+        o.targetVersion = targetVersion
+        o.doValidation = doValidation
+        o.doTranslation = doTranslation
+        o.doODTTranslation = doODTTranslation
+        o.compactOutput = compactOutput
+        o.schemaFolder = schemaFolder
+        o.latestSchema = latestSchema
+        o.maxDensBug = maxDensBug
+        o.iptiSpOption = iptiSpOption
+        o.iptiROAR = iptiROAR
+        o.ITN29Translation = ITN29Translation
+        o.hsTreatmentTranslation = hsTreatmentTranslation
+        return o
+    }
+}
+
+/** In-memory translation of scenarios, for use as a library.
+ *
+ * Unlike the command-line tool, this reads no input folder, writes no
+ * output and prints nothing: warnings and errors are returned with the
+ * result. Only the schema folder is used, and only when validating.
+ *
+ * Thread-safe: translate may be called from several threads at once. */
+class ScenarioTranslator(options: TranslationOptions) {
+    /** Never changed: translators only read their options. */
+    private val options = options.toOptions()
+
+    /** Translate a scenario given as bytes (the encoding is taken from the
+     * XML declaration). */
+    fun translate(input: ByteArray): Translation = translate(InputSource(ByteArrayInputStream(input)))
+
+    /** Translate a scenario given as text. */
+    fun translate(input: String): Translation {
+        val source = InputSource()
+        source.setCharacterStream(StringReader(input))
+        return translate(source)
+    }
+
+    /** Translate document in place.
+     *
+     * The document must support DOM mutation events, as the JDK's does.
+     * Listeners added to it while translating are removed before
+     * returning. */
+    fun translate(input: Document): Translation = translate(DocumentInputSource(input))
+
+    /** Translate input. Never throws for a bad document: unreadable or
+     * invalid input and failures of translation steps give a failed
+     * Translation (see Translation.getError). */
+    fun translate(input: InputSource): Translation {
+        var translator: Translator? = null
+        var error: String? = null
+        var entries: List<Diagnostics.Entry> = ArrayList<Diagnostics.Entry>()
+        Diagnostics.begin(input.getSystemId())
+        try{
+            val t = TranslatorJava(input, options)
+            try{
+                t.translateAndValidate()
+                translator = t
+            }finally{
+                t.finish()
+            }
+        }catch(e: DocumentException){
+            error = e.getMessage() ?: e.toString()
+        }catch(e: Exception){
+            // parse errors (XMLStreamException, SAXException), missing
+            // schemas (SetupException) or a bug in a step
+            error = e.toString()
+        }finally{
+            entries = Diagnostics.end()!!
+        }
+        return Translation(translator, error, entries)
+    }
+}
+
+/** Result of ScenarioTranslator.translate: the translated document, or the
+ * reason translation failed, and the warnings and errors reported. */
+class Translation(translator: Translator?, error: String?, diagnostics: List<Diagnostics.Entry>) {
+    private val translator = translator
+    private val error = error
+    private val diagnostics = diagnostics
+
+    /** True if the document was translated (it may still be invalid; see
+     * getValidationErrors). */
+    fun isSuccess(): Boolean = translator != null
+
+    /** Why translation failed, or null on success. */
+    fun getError(): String? = error
+
+    /** Warnings and errors, including validation errors. */
+    fun getDiagnostics(): List<Diagnostics.Entry> = diagnostics
+
+    /** Number of validation errors (0 if not validated). */
+    fun getValidationErrors(): Int = get().validationErrors
+
+    /** The translated document (for a Document input, that document). */
+    fun getDocument(): Document = get().getDocument()
+
+    /** Schema version of the translated document. */
+    fun getVersion(): Int =
+        Integer.parseInt("0" + getDocument().getDocumentElement()!!.getAttribute("schemaVersion"))
+
+    /** Write the document, formatted as by the command-line tool. This
+     * replaces white-space in the document. */
+    fun writeTo(result: Result) = get().writeTo(result)
+
+    fun toBytes(): ByteArray {
+        val out = ByteArrayOutputStream()
+        writeTo(StreamResult(out))
+        return out.toByteArray()!!
+    }
+
+    fun toXmlString(): String {
+        val out = StringWriter()
+        writeTo(StreamResult(out))
+        return out.toString()
+    }
+
+    private fun get(): Translator {
+        if (translator == null) throw IllegalStateException("translation failed: ${error}")
+        return translator
+    }
+}
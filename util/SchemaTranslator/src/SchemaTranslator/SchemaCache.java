@@ -0,0 +1,110 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Process-wide cache of compiled schemas.
+ *
+ * Compiling scenario_XX.xsd (and the files it includes) costs far more than
+ * translating a typical scenario, so each schema is compiled once per JVM
+ * and re-used. Entries are keyed by absolute path and re-compiled if the
+ * file's modification time changes.
+ *
+ * Schema objects are thread-safe, Validators are not; validators are
+ * therefore cached per thread and reset before each use.
+ *
+ * This class only depends on the JDK. */
+public final class SchemaCache {
+    private SchemaCache() {}
+
+    private static final class CompiledSchema {
+        final long lastModified;
+        final Schema schema;
+        CompiledSchema( long lastModified, Schema schema ){
+            this.lastModified = lastModified;
+            this.schema = schema;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, CompiledSchema> schemas =
+        new ConcurrentHashMap<String, CompiledSchema>();
+    /** Created on first use; only used while holding the lock on schemas. */
+    private static SchemaFactory factory = null;
+
+    private static final ThreadLocal<Map<Schema, Validator>> validators =
+        new ThreadLocal<Map<Schema, Validator>>() {
+            @Override
+            protected Map<Schema, Validator> initialValue() {
+                return new HashMap<Schema, Validator>();
+            }
+        };
+
+    /** Get the compiled schema for schemaFile, compiling it if not yet
+     * cached or if the file changed since it was compiled. */
+    public static Schema getSchema( File schemaFile ) throws SAXException {
+        String key = schemaFile.getAbsolutePath();
+        long lastModified = schemaFile.lastModified();
+        CompiledSchema cached = schemas.get( key );
+        if( cached != null && cached.lastModified == lastModified ){
+            return cached.schema;
+        }
+        // SchemaFactory is not thread-safe. Compiling under a lock also stops
+        // several threads compiling the same schema at once.
+        synchronized( schemas ){
+            cached = schemas.get( key );
+            if( cached == null || cached.lastModified != lastModified ){
+                if( factory == null ) factory = SchemaFactory.newInstance( XMLConstants.W3C_XML_SCHEMA_NS_URI );
+                cached = new CompiledSchema( lastModified, factory.newSchema( schemaFile ) );
+                schemas.put( key, cached );
+            }
+            return cached.schema;
+        }
+    }
+
+    /** Get a validator for schema, owned by the calling thread.
+     *
+     * The validator is reset; callers should set their own error handler. */
+    public static Validator getValidator( Schema schema ){
+        Map<Schema, Validator> threadValidators = validators.get();
+        Validator validator = threadValidators.get( schema );
+        if( validator == null ){
+            validator = schema.newValidator();
+            threadValidators.put( schema, validator );
+        }else{
+            validator.reset();
+        }
+        return validator;
+    }
+
+    /** Convenience: getValidator( getSchema( schemaFile ) ). */
+    public static Validator getValidator( File schemaFile ) throws SAXException {
+        return getValidator( getSchema( schemaFile ) );
+    }
+}
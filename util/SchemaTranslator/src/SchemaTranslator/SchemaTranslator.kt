@@ -10,9 +10,14 @@ import org.w3c.dom.Node
 import org.w3c.dom.NodeList
 import kotlin.dom.*
 import java.util.ArrayList
-import java.io.FileReader
-import java.io.FileOutputStream
+import java.io.InputStream
+import java.io.ByteArrayInputStream
+import java.io.BufferedReader
+import java.io.InputStreamReader
+import java.io.PrintStream
+import java.io.IOException
 import javax.xml.transform.stream.StreamResult
+import javax.xml.stream.XMLStreamException
 import javax.xml.transform.TransformerFactory
 import javax.xml.transform.Result
 import javax.xml.transform.OutputKeys
@@ -22,13 +27,32 @@ import javax.xml.validation.Schema
 import javax.xml.validation.Validator
 import javax.xml.transform.Source
 import org.xml.sax.SAXParseException
+import org.xml.sax.SAXException
 import java.sql.Connection
 import java.sql.DriverManager
 import java.sql.Statement
 import java.sql.ResultSet
+import java.sql.PreparedStatement
 import java.io.StringReader
 import java.io.StringWriter
 import java.lang.reflect.Method
+import java.util.concurrent.Callable
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.FileVisitOption
+import java.nio.file.FileVisitResult
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.EnumSet
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.regex.Pattern
 
 
 /** Entrypoint for the SchemaTranslator. This depends on both TranslatorKotlin and TranslatorJava. */
@@ -38,6 +62,7 @@ fun main(args: Array<String>): Unit {
     try{
         processArgs (args, options)
     }catch(e: SetupException){
+        val heapFactor = java.text.DecimalFormat("0.##").format(HeapBudget.DEFAULT_FACTOR)
         System.err.println("""Error: ${e.getMessage()}
 
 Usage: schemaTranslator [options]:
@@ -48,7 +73,61 @@ Usage: schemaTranslator [options]:
   --no-validation		Don't validate the result
   --no-translation		Don't write out the translated result (but still
 				translate internally for validation)
-  --update-db			Update DB entries instead of files
+  --compact-output		Write documents without indentation or line
+				breaks (smaller, e.g. for the database)
+  --compress-output		Write compressed inputs (*.xml.gz, *.xml.zip,
+				*.xml.zz) compressed the same way, keeping the
+				suffix; by default the output is uncompressed
+  --pass-through		Copy files already at the required version
+				unchanged (not reformatted) instead of
+				translating them; validation, if any, is done
+				while reading, with namespaces
+  --plan			Dry run: for each file, only print the steps
+				which would be streamed, run and skipped
+  --survey			Dry run: only count files by schema version and
+				size, reading just their root elements, and
+				estimate the translation work
+  --step-costs FILE		For --survey: estimate times from the costs per
+				document measured with --metrics FILE
+  --incremental			Skip files whose input, options, schemas and
+				translator build are unchanged since the last
+				run (recorded in ${TranslationManifest.FILE_NAME}
+				in the output folder)
+  --server			Keep running and serve requests read from stdin,
+				one per line (see serve() in SchemaTranslator.kt):
+				  translate INPUT [OUTPUT]
+				  validate INPUT
+				  ping
+				  quit
+				Each request is answered on stdout by zero or more
+				"diagnostic" lines and a final "ok" or "error" line.
+  --update-db			Update DB entries (table scenarios, columns id
+				and xml) instead of files
+  --db-url URL			JDBC URL of the database
+  --db-user USER		Database user name
+  --db-password PASSWORD	Database password
+  --db-driver CLASS		JDBC driver class to load (default:
+				com.mysql.jdbc.Driver; empty for none)
+  --db-fetch-size N		Rows to read per query, by id (0: all at once;
+				default: 100)
+  --db-batch-size N		Updates per batch and transaction (default: 100)
+  --threads N			Translate N files (or DB rows) in parallel
+				(default: 1)
+  --heap-factor F		With --threads: estimate each document to need F
+				bytes of heap per byte of XML and wait while
+				the documents being translated would need more
+				than 3/4 of the maximum heap; 0 disables this
+				(default: ${heapFactor})
+  --diagnostics FILE		Also write all warnings and errors, tagged with
+				document, step, severity and code, to FILE
+				(JSON if FILE ends with .json, else CSV)
+  --diff-report FILE		Write the structural changes made to each
+				document (elements renamed, moved, added or
+				removed, attributes and text changed) to FILE
+				(JSON if FILE ends with .json, else CSV)
+  --metrics FILE		Write time, allocation and node counts per
+				translation step, validation and output to
+				FILE (JSON if FILE ends with .json, else CSV)
   --maxDensCorrection BOOL	Update 12->13 requires this sometimes: set true to
 				include bug fix, false to explicitly exclude it.
   --iptiSpOptionWithoutInterventions
@@ -80,12 +159,27 @@ Usage: schemaTranslator [options]:
     }
 
     try{
-        if (options.doDBUpdate){
+        if (options.metricsFile != null) options.metrics = TranslationMetrics()
+        if (options.diagnosticsFile != null) options.diagnostics = Diagnostics.Report()
+        if (options.diffReportFile != null) options.diffReport = DocumentDiff.Report()
+        if (options.server){
+            serve(options)
+        }else if (options.doDBUpdate){
             updateDB(options)
         }else{
             System.out.println("Put XMLs to be translated into the \"${options.inputFolder}\" directory")
             visitAllFiles(options)
         }
+        if (options.metrics != null){
+            options.metrics!!.write(options.metricsFile!!)
+            System.err.println("Metrics of ${options.metrics!!.getDocuments()} documents written to ${options.metricsFile}")
+        }
+        if (options.diagnostics != null){
+            options.diagnostics!!.write(options.diagnosticsFile!!)
+        }
+        if (options.diffReport != null){
+            options.diffReport!!.write(options.diffReportFile!!)
+        }
     }catch (e : Exception) {
         e.printStackTrace()
         System.exit(1)
@@ -117,7 +211,42 @@ fun processArgs(args: Array<String>, options: Options) {
             }
             "--no-validation" -> options.doValidation = false
             "--no-translation" -> options.doTranslation = false
+            "--compact-output" -> options.compactOutput = true
+            "--compress-output" -> options.compressOutput = true
+            "--pass-through" -> options.passThrough = true
+            "--plan" -> options.planOnly = true
+            "--survey" -> options.survey = true
+            "--step-costs" -> options.stepCostsFile = args[++i]
             "--update-db" -> options.doDBUpdate = true
+            "--server" -> options.server = true
+            "--incremental" -> options.incremental = true
+            "--db-url" -> options.dbUrl = args[++i]
+            "--db-user" -> options.dbUser = args[++i]
+            "--db-password" -> options.dbPassword = args[++i]
+            "--db-driver" -> options.dbDriver = args[++i]
+            "--db-fetch-size" -> {
+                options.dbFetchSize = Integer.parseInt(args[++i])
+                if (options.dbFetchSize < 0)
+                    throw SetupException("--db-fetch-size: expected a non-negative number")
+            }
+            "--db-batch-size" -> {
+                options.dbBatchSize = Integer.parseInt(args[++i])
+                if (options.dbBatchSize < 1)
+                    throw SetupException("--db-batch-size: expected a positive number")
+            }
+            "--metrics" -> options.metricsFile = args[++i]
+            "--diagnostics" -> options.diagnosticsFile = args[++i]
+            "--diff-report" -> options.diffReportFile = args[++i]
+            "--heap-factor" -> {
+                options.heapFactor = java.lang.Double.parseDouble(args[++i])
+                if (!(options.heapFactor >= 0))
+                    throw SetupException("--heap-factor: expected a non-negative number")
+            }
+            "--threads" -> {
+                options.threads = Integer.parseInt(args[++i])
+                if (options.threads < 1)
+                    throw SetupException("--threads: expected a positive number")
+            }
             "--maxDensCorrection" -> {
                 options.maxDensBug = when (args[++i].toLowerCase()){
                     "true" -> BugCorrectionBehaviour.CORRECT
@@ -190,76 +319,679 @@ fun checkFolder(file: File, create: Boolean = false){
     }
 }
 
+/** Shared count of documents which failed to translate. Translation stops
+ * once more than ten documents have failed. */
+class ErrorBudget {
+    private val count = AtomicInteger(0)
+    fun exhausted(): Boolean = count.get() > 10
+    fun documentFailed(e: DocumentException) {
+        System.err.println("Error updating a document: ${e.getMessage()}")
+        val n = count.incrementAndGet()
+        if (n <= 2) e.printStackTrace()
+        if (n > 10){
+            throw Exception("Too many errors encountered. Stopping.")
+        }
+    }
+}
+
+/** State of an incremental run (--incremental): the manifest of the output
+ * folder and the parts of each file's key which don't depend on the file. */
+class Incremental(options: Options) {
+    private val outputFolder = options.outputFolder.toPath()!!
+    private val requireOutput = options.doTranslation || options.doODTTranslation
+    val manifest: TranslationManifest = TranslationManifest.load(options.outputFolder)!!
+    // schemas include each other, so all are part of the key; so is the
+    // translator, whose steps change between builds
+    private val context: String = options.fingerprint() + "\n" +
+        TranslationManifest.checksumFiles(options.schemaFolder, ".xsd") + "\n" +
+        TranslationManifest.checksumTranslator()
+
+    fun key(input: ByteArray): String = TranslationManifest.hash(input, context)!!
+
+    /** Path of outFile as used in the manifest. */
+    fun path(outFile: Path): String =
+        outputFolder.relativize(outFile)!!.toString().replace(File.separatorChar, '/')
+
+    /** True if translating to outFile would reproduce the last result. */
+    fun isUnchanged(outFile: Path, key: String): Boolean =
+        manifest.isUnchanged(path(outFile), key) && (!requireOutput || Files.exists(outFile))
+}
+
+/** Parse a scenario from bytes if given, otherwise from file, decompressing
+ * according to the name of file (see FileCodec). Input is read as bytes,
+ * so the encoding is taken from the XML declaration. */
+fun openTranslator(file: Path, bytes: ByteArray?, options: Options) : TranslatorJava {
+    val stream: InputStream =
+        if (bytes != null) FileCodec.decode(file.getFileName()!!.toString(), ByteArrayInputStream(bytes))!!
+        else FileCodec.openInput(file)!!
+    try{
+        val source = InputSource(stream)
+        source.setSystemId(file.toUri()!!.toString())
+        return TranslatorJava(source, options)
+    }finally{
+        stream.close()
+    }
+}
+
+/** Parse file (or bytes, if given) without translating it, for
+ * --diff-report. */
+fun parseOriginal(file: Path, bytes: ByteArray?) : Document {
+    val stream: InputStream =
+        if (bytes != null) FileCodec.decode(file.getFileName()!!.toString(), ByteArrayInputStream(bytes))!!
+        else FileCodec.openInput(file)!!
+    try{
+        val source = InputSource(stream)
+        source.setSystemId(file.toUri()!!.toString())
+        return XmlPool.getDocumentBuilder()!!.parse(source)!!
+    }finally{
+        stream.close()
+    }
+}
+
+/** Add the changes from original to the translated document to
+ * options.diffReport (--diff-report). */
+fun reportDiff(document: String, original: Document, translator: Translator, options: Options){
+    options.diffReport!!.add(document, DocumentDiff.compare(original, translator.getDocument()))
+}
+
+/** Translate one file, writing the result to outFile.
+ *
+ * With incremental (may be null), skip the file if unchanged and record it
+ * when translated (and validated) without errors. */
+fun translateFile(input: Path, outFile: Path, options: Options, errors: ErrorBudget, incremental: Incremental?) : Unit {
+    var bytes: ByteArray? = null
+    var key: String? = null
+    if (incremental != null){
+        bytes = Files.readAllBytes(input)!!
+        key = incremental.key(bytes!!)
+        if (incremental.isUnchanged(outFile, key!!)){
+            System.out.println("Unchanged: ${input.toAbsolutePath()}")
+            incremental.manifest.record(incremental.path(outFile), key!!)
+            return
+        }
+    }
+    if (options.passThrough && !options.doODTTranslation && isAtTargetVersion(input, options)){
+        passThrough(input, outFile, options, errors, incremental, key)
+        return
+    }
+    System.out.println("Translating ${input.toAbsolutePath()}")
+    Diagnostics.begin(input.toAbsolutePath()!!.toString())
+    try{
+        try{
+            val translator = openTranslator(input, bytes, options)
+            try{
+                // parsed once translator could parse the file
+                val original = if (options.diffReport == null) null else parseOriginal(input, bytes)
+                translator.translateAndValidate()
+                if (original != null) reportDiff(input.toAbsolutePath()!!.toString(), original, translator, options)
+                if (options.doTranslation||options.doODTTranslation)
+                    writeFile(translator, outFile)
+            }finally{
+                translator.finish()
+            }
+            if (incremental != null && translator.validationErrors == 0)
+                incremental.manifest.record(incremental.path(outFile), key!!)
+        }finally{
+            endDiagnostics(options)
+        }
+    }catch(e: DocumentException){
+        errors.documentFailed(e)
+    }
+}
+
+/** True if input can be read and is at the target version. Files which
+ * can't be read are left for translateFile to report. */
+fun isAtTargetVersion(input: Path, options: Options): Boolean {
+    try{
+        return readVersion(input) == options.targetVersion
+    }catch(e: XMLStreamException){
+        return false
+    }
+}
+
+/** Copy input, which is at the target version, to outFile without parsing it
+ * into a DOM (--pass-through), validating while reading if required. */
+fun passThrough(input: Path, outFile: Path, options: Options, errors: ErrorBudget, incremental: Incremental?, key: String?){
+    System.out.println("Passing through ${input.toAbsolutePath()}")
+    Diagnostics.begin(input.toAbsolutePath()!!.toString())
+    try{
+        val metrics = options.metrics?.newRecorder()
+        try{
+            var validationErrors = 0
+            if (options.doValidation){
+                metrics?.begin()
+                Diagnostics.setStep("validate")
+                try{
+                    validationErrors = validateFile(input, options)
+                }finally{
+                    Diagnostics.setStep(null)
+                    metrics?.endValidate()
+                }
+            }
+            if (options.doTranslation){
+                metrics?.begin()
+                try{
+                    FileCodec.copy(input, outFile)
+                }finally{
+                    metrics?.endWriteTo()
+                }
+            }
+            if (incremental != null && validationErrors == 0)
+                incremental.manifest.record(incremental.path(outFile), key!!)
+        }finally{
+            if (metrics != null) options.metrics!!.add(metrics)
+            endDiagnostics(options)
+        }
+    }catch(e: DocumentException){
+        errors.documentFailed(e)
+    }
+}
+
+/** Validate input against the schema of the target version while reading
+ * it (see validateStreaming). Returns the number of errors reported. */
+fun validateFile(input: Path, options: Options): Int {
+    val stream = FileCodec.openInput(input)!!
+    try{
+        val source = InputSource(stream)
+        source.setSystemId(input.toUri()!!.toString())
+        val schemaFile = File(options.schemaFolder, schemaName(options.targetVersion, options))
+        return validateStreaming(source, schemaFile, options)
+    }catch(e: SAXParseException){
+        // already reported to Diagnostics as a fatal error
+        return 1
+    }catch(e: SAXException){
+        throw DocumentException("${input.toAbsolutePath()}: ${e.getMessage()}")
+    }catch(e: XMLStreamException){
+        throw DocumentException("${input.toAbsolutePath()}: ${e.getMessage()}")
+    }finally{
+        stream.close()
+    }
+}
+
+/** Write the translated document to outFile, creating folders as needed and
+ * compressing according to the name of outFile (see FileCodec). */
+fun writeFile(translator: Translator, outFile: Path){
+    Files.createDirectories(outFile.toAbsolutePath()!!.getParent()!!)
+    val out = FileCodec.openOutput(outFile)!!
+    try{
+        translator.writeTo (StreamResult(out))
+    }finally{
+        out.close()
+    }
+}
+
+/** Print the warnings and errors collected for the current document (see
+ * Diagnostics.begin) and add them to options.diagnostics if set. */
+fun endDiagnostics(options: Options){
+    val entries = Diagnostics.end()!!
+    Diagnostics.print(entries, System.err)
+    options.diagnostics?.add(entries)
+}
+
+/** A file to translate and the file to write the result to. */
+class TranslationJob(val input: Path, val output: Path)
+
+/** Name of the output file for input: the same name, without the suffix of
+ * a compressed input unless --compress-output is given. */
+fun outputFileName(input: Path, options: Options): String {
+    val name = input.getFileName()!!.toString()
+    return if (options.compressOutput) name else FileCodec.plainName(name)!!
+}
+
+/** Translate all .xml files (also compressed ones, see FileCodec) under the
+ * input folder into the same relative paths under the output folder. */
 fun visitAllFiles(options: Options) : Unit {
-    var errorCount = 0
-    fun visit(input: File, outDir: File, top: Boolean){
-        if (input.isDirectory()){
-            var subDir = if (top) outDir else File(outDir, input.getName())
-            for( child in input.list() ){
-                visit(File(input, child), subDir, false)
+    val jobs = ArrayList<TranslationJob>()
+    val inputRoot = options.inputFolder.toPath()!!
+    val outputRoot = options.outputFolder.toPath()!!
+    // List all files first; translation (possibly in parallel) then only
+    // needs the list.
+    Files.walkFileTree(inputRoot, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+        object : SimpleFileVisitor<Path>() {
+            override fun visitFile(file: Path, attrs: BasicFileAttributes): FileVisitResult {
+                if (FileCodec.isScenarioFile(file.getFileName()!!.toString())){
+                    val output = outputRoot.resolve(inputRoot.relativize(file)!!)!!
+                    jobs.add(TranslationJob(file, output.resolveSibling(outputFileName(file, options))!!))
+                }
+                return FileVisitResult.CONTINUE
+            }
+        })
+
+    if (options.planOnly){
+        for (job in jobs) printPlan(job.input, options)
+        return
+    }
+    if (options.survey){
+        printSurvey(jobs, options)
+        return
+    }
+
+    val errors = ErrorBudget()
+    val incremental: Incremental? = if (options.incremental) Incremental(options) else null
+    try{
+        if (options.threads <= 1){
+            for (job in jobs){
+                translateFile(job.input, job.output, options, errors, incremental)
             }
         }else{
-            if (input.getName().endsWith(".xml")){
-                System.out.println("Translating ${input.getAbsolutePath()}")
+            translateInParallel(jobs, options, errors, incremental)
+        }
+    }finally{
+        // also after errors: what was recorded is still valid
+        if (incremental != null) incremental.manifest.save()
+    }
+}
+
+/** Serve requests from stdin until "quit" or end of input (--server).
+ *
+ * The process stays up, so classes are loaded, code is compiled by the JIT
+ * and schemas are compiled (see SchemaCache) only once. Requests are read
+ * one per line; arguments are separated by tabs if the line contains one,
+ * otherwise by white-space. Relative paths are resolved against the
+ * working directory.
+ *
+ *   translate INPUT [OUTPUT]  Translate INPUT, validate (unless
+ *                             --no-validation) and write to OUTPUT (by
+ *                             default the file of the same name in the
+ *                             output folder; nothing is written with
+ *                             --no-translation).
+ *   validate INPUT            Translate INPUT in memory and validate the
+ *                             result; nothing is written.
+ *   ping                      Check that the server is alive.
+ *   quit                      Stop the server.
+ *
+ * Each request is answered on stdout with one line per diagnostic:
+ *   diagnostic SEVERITY STEP CODE MESSAGE
+ * (STEP is "-" if not known), then one final line: "ok", followed for
+ * translate and validate by the number of validation errors, or
+ * "error MESSAGE" if the request failed. Anything else the translator
+ * prints goes to stderr.
+ *
+ * Requests are handled one at a time; all use the options given on the
+ * command line. */
+fun serve(options: Options){
+    val out = System.out
+    System.setOut(System.err)
+    try{
+        val reader = BufferedReader(InputStreamReader(System.`in`, "UTF-8"))
+        while (true){
+            val line = reader.readLine()
+            if (line == null) break
+            if (line.trim().isEmpty()) continue
+            val args = Pattern.compile(if (line.indexOf('\t') >= 0) "\t" else "\\s+").split(line.trim())!!
+            val stop = serveRequest(args, options, out)
+            out.flush()
+            if (stop) break
+        }
+    }finally{
+        System.setOut(out)
+    }
+}
+
+/** Handle one request of serve(); returns true to stop serving. */
+fun serveRequest(args: Array<String>, options: Options, out: PrintStream): Boolean {
+    when (args[0]){
+        "ping" -> out.println("ok")
+        "quit" -> {
+            out.println("ok")
+            return true
+        }
+        "translate" -> {
+            if (args.size < 2 || args.size > 3){
+                out.println("error usage: translate INPUT [OUTPUT]")
+            }else{
+                val input = Paths.get(args[1])!!
+                val output = if (args.size == 3) Paths.get(args[2])!!
+                    else options.outputFolder.toPath()!!.resolve(outputFileName(input, options))!!
+                serveTranslation(input, output, options, out)
+            }
+        }
+        "validate" -> {
+            if (args.size != 2){
+                out.println("error usage: validate INPUT")
+            }else{
+                // requests are handled one at a time, so options can be
+                // changed temporarily
+                val doValidation = options.doValidation
+                options.doValidation = true
                 try{
-                    val translator = TranslatorJava(InputSource(FileReader(input)), options)
-                    translator.translateAndValidate()
-                    if (options.doTranslation||options.doODTTranslation) {
-                        val outFile = File(outDir, input.getName())
-                        outFile.createNewFile()
-                        val result = StreamResult(FileOutputStream(outFile))
-                        translator.writeTo (result)
-                    }
-                }catch(e: DocumentException){
-                    System.err.println("Error updating a document: ${e.getMessage()}")
-                    if (errorCount < 2) e.printStackTrace()
-                    ++errorCount
-                    if (errorCount > 10){
-                        throw Exception("Too many errors encountered. Stopping.")
+                    serveTranslation(Paths.get(args[1])!!, null, options, out)
+                }finally{
+                    options.doValidation = doValidation
+                }
+            }
+        }
+        else -> out.println("error unknown request: ${args[0]}")
+    }
+    return false
+}
+
+/** Translate input for serve(), writing to output unless null, and answer
+ * on out. */
+fun serveTranslation(input: Path, output: Path?, options: Options, out: PrintStream){
+    var result = "error no result"
+    Diagnostics.begin(input.toAbsolutePath()!!.toString())
+    try{
+        val translator = openTranslator(input, null, options)
+        try{
+            translator.translateAndValidate()
+            if (output != null && (options.doTranslation||options.doODTTranslation))
+                writeFile(translator, output)
+        }finally{
+            translator.finish()
+        }
+        result = "ok ${translator.validationErrors}"
+    }catch(e: DocumentException){
+        result = "error ${e.getMessage()}"
+    }catch(e: Exception){
+        // unreadable input or a bug in a step should not stop the server
+        result = "error ${e}"
+    }finally{
+        val entries = Diagnostics.end()!!
+        options.diagnostics?.add(entries)
+        for (entry in entries){
+            out.println(singleLine("diagnostic ${entry.getSeverity()} ${entry.getStep() ?: "-"} ${entry.getCode()} ${entry.getMessage()}"))
+        }
+        out.println(singleLine(result))
+    }
+}
+
+/** Replace line breaks, which would break the protocol of serve(). */
+fun singleLine(s: String): String = s.replace('\n', ' ').replace('\r', ' ')
+
+/** Schema version of input, reading only up to its root element. */
+fun readVersion(input: Path): Int {
+    val stream = FileCodec.openInput(input)!!
+    try{
+        val source = InputSource(stream)
+        source.setSystemId(input.toUri()!!.toString())
+        return StreamingTranslator.readVersion(source)
+    }finally{
+        stream.close()
+    }
+}
+
+/** Print the steps needed to translate input (--plan). Only the root
+ * element is read. */
+fun printPlan(input: Path, options: Options){
+    try{
+        val version = readVersion(input)
+        System.out.println("${input.toAbsolutePath()}: ${TranslationPlan.create(version, options.targetVersion)!!.describe()}")
+    }catch(e: XMLStreamException){
+        System.out.println("${input.toAbsolutePath()}: error: ${e.getMessage()}")
+    }
+}
+
+/** Count the versions and sizes of jobs and estimate the work of
+ * translating them (--survey). Only the root element of each file is
+ * read. */
+fun printSurvey(jobs: List<TranslationJob>, options: Options){
+    val survey = CorpusSurvey(options.targetVersion)
+    if (options.stepCostsFile != null){
+        val phases = arrayListOf("parse")
+        if (options.doODTTranslation) phases.add("oDTTranslation")
+        if (options.doValidation) phases.add("validate")
+        if (options.doTranslation || options.doODTTranslation) phases.add("writeTo")
+        survey.setCosts(CorpusSurvey.readCosts(options.stepCostsFile!!), phases)
+    }
+    for (job in jobs){
+        try{
+            survey.add(readVersion(job.input), Files.size(job.input))
+        }catch(e: XMLStreamException){
+            System.out.println("${job.input.toAbsolutePath()}: error: ${e.getMessage()}")
+            survey.addUnreadable()
+        }catch(e: IOException){
+            System.out.println("${job.input.toAbsolutePath()}: error: ${e}")
+            survey.addUnreadable()
+        }
+    }
+    survey.print(System.out)
+}
+
+/** Outcome of translating one file on a worker thread. */
+class JobResult(val output: ConsoleCapture.Output, val failure: Throwable?)
+
+/** Translate jobs using a work-stealing pool of options.threads workers.
+ *
+ * Documents are independent, so each is translated by its own TranslatorJava
+ * instance on whichever worker is free. Console output of each file is
+ * captured and replayed in the order the files were listed, so output is the
+ * same as when translating serially. */
+fun translateInParallel(jobs: List<TranslationJob>, options: Options, errors: ErrorBudget, incremental: Incremental?) : Unit {
+    val pool = ForkJoinPool(options.threads)
+    val budget = heapBudget(options)
+    ConsoleCapture.install()
+    try{
+        val results = ArrayList<Future<JobResult>>()
+        for (job in jobs){
+            results.add(pool.submit(object : Callable<JobResult> {
+                override fun call(): JobResult {
+                    if (errors.exhausted()) return JobResult(ConsoleCapture.end(), null)
+                    ConsoleCapture.begin()
+                    var failure: Throwable? = null
+                    try{
+                        val held = budget?.acquire(estimateHeap(budget, job.input, options)) ?: 0
+                        try{
+                            translateFile(job.input, job.output, options, errors, incremental)
+                        }finally{
+                            budget?.release(held)
+                        }
+                    }catch(e: Throwable){
+                        failure = e
                     }
+                    return JobResult(ConsoleCapture.end(), failure)
                 }
+            })!!)
+        }
+        for (future in results){
+            val result = future.get()!!
+            result.output.replay()
+            if (result.failure != null){
+                pool.shutdownNow()
+                throw result.failure
+            }
+        }
+    }finally{
+        pool.shutdown()
+        ConsoleCapture.uninstall()
+    }
+}
+
+/** Admission control for parallel translation, or null if disabled
+ * (--heap-factor 0). */
+fun heapBudget(options: Options): HeapBudget? =
+    if (options.heapFactor > 0) HeapBudget.forMaxHeap(options.heapFactor) else null
+
+/** Estimated heap use of translating a document of xmlBytes bytes. With
+ * --diff-report the original is kept too. */
+fun estimateHeap(budget: HeapBudget, xmlBytes: Long, options: Options): Long =
+    budget.estimate(xmlBytes, if (options.diffReport == null) 1 else 2)
+
+/** Estimated heap use of translating input. Files which can't be read are
+ * admitted freely; translateFile reports the error. */
+fun estimateHeap(budget: HeapBudget, input: Path, options: Options): Long {
+    try{
+        return estimateHeap(budget, FileCodec.uncompressedSize(input), options)
+    }catch(e: IOException){
+        return 0
+    }
+}
+
+/** Translate one scenario held as a string (e.g. from the database). The
+ * name of the document is used for --diff-report. */
+fun translateScenario(xml: String, options: Options, document: String = "scenario") : String {
+    val inputSource : InputSource = InputSource()
+    inputSource.setCharacterStream(StringReader(xml))
+    val translator = TranslatorJava(inputSource, options)
+    try{
+        val original = if (options.diffReport == null) null
+            else XmlPool.getDocumentBuilder()!!.parse(InputSource(StringReader(xml)))!!
+        translator.translateAndValidate()
+        if (original != null) reportDiff(document, original, translator, options)
+        val result : StreamResult = StreamResult(StringWriter())
+        translator.writeTo (result)
+        return result.getWriter()!!.toString()
+    }finally{
+        translator.finish()
+    }
+}
+
+/** Writes translated scenarios back to the database in batches of
+ * batchSize updates, committing each batch. May be called from several
+ * threads. */
+class ScenarioWriter(con: Connection, batchSize: Int) {
+    private val con = con
+    private val batchSize = batchSize
+    private val update: PreparedStatement = con.prepareStatement("UPDATE scenarios SET xml=? WHERE id=?")!!
+    private var pending = 0
+    private var written = 0
+
+    fun add(id: Any, xml: String){
+        synchronized(this){
+            update.setString(1, xml)
+            update.setObject(2, id)
+            update.addBatch()
+            ++pending
+            if (pending >= batchSize) flush()
+        }
+    }
+    /** Send and commit any pending updates. */
+    fun flush(){
+        synchronized(this){
+            if (pending > 0){
+                update.executeBatch()
+                con.commit()
+                written += pending
+                pending = 0
             }
         }
     }
-    visit(options.inputFolder, options.outputFolder, true)
+    fun getWritten(): Int = synchronized(this){ written }
+}
+
+/** A row of the scenarios table. */
+class ScenarioRow(val id: Any, val xml: String)
+
+/** Run query (with lastId as its parameter unless null) and return all its
+ * rows, ending the read transaction if the connection has one. */
+fun readPage(con: Connection, query: PreparedStatement, lastId: Any?): List<ScenarioRow> {
+    if (lastId != null) query.setObject(1, lastId)
+    val page = ArrayList<ScenarioRow>()
+    val rows : ResultSet = query.executeQuery()!!
+    try{
+        while (rows.next())
+            page.add(ScenarioRow(rows.getObject("id")!!, rows.getString("xml")!!))
+    }finally{
+        rows.close()
+    }
+    if (!con.getAutoCommit()) con.commit()
+    return page
 }
 
+/** Translate all scenarios in the database.
+ *
+ * Rows are read from one connection in pages of options.dbFetchSize rows
+ * (by increasing id; 0 for all in one page), translated by options.threads workers and written
+ * back through a second connection in batches (see ScenarioWriter). The
+ * number of rows waiting for a worker is bounded; when all are busy the
+ * reading thread translates rows itself.
+ *
+ * The reader holds no transaction or open result set between pages, so
+ * databases which lock for reading (e.g. SQLite, whose writer must wait
+ * for all readers to commit) can commit the writer's batches meanwhile. */
 fun updateDB(options: Options) {
-    Class.forName("com.mysql.jdbc.Driver").newInstance()
-    val con: Connection = DriverManager.getConnection("jdbc:mysql://127.0.0.1:3306/DBNAME", "USER", "PASSWD")
+    if (!options.dbDriver.isEmpty())
+        Class.forName(options.dbDriver)
+    val readCon: Connection = DriverManager.getConnection(options.dbUrl, options.dbUser, options.dbPassword)!!
     try{
-        if (con.isClosed()) {
-            System.err.println("Failed to connect to MySQL server")
-            return
+        val writeCon: Connection = DriverManager.getConnection(options.dbUrl, options.dbUser, options.dbPassword)!!
+        try{
+            System.err.println("Successfully connected to ${options.dbUrl}")
+            writeCon.setAutoCommit(false)
+            translateRows(readCon, ScenarioWriter(writeCon, options.dbBatchSize), options)
+        }finally{
+            writeCon.close()
         }
-        System.err.println("Successfully connected to MySQL server using TCP/IP...")
-
-        val stmt : Statement = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE)!!
-        val uprs : ResultSet = stmt.executeQuery("SELECT id,run_id,xml FROM scenarios")
-        var errorCount = 0
-        while (uprs.next()){
-            val xml : String = uprs.getString("xml")!!
-            val inputSource : InputSource = InputSource()
-            inputSource.setCharacterStream(StringReader(xml))
+    }finally{
+        readCon.close()
+    }
+}
+
+fun translateRows(readCon: Connection, writer: ScenarioWriter, options: Options) {
+    val errors = ErrorBudget()
+    val failure = AtomicReference<Throwable>()
+    fun process(id: Any, xml: String){
+        Diagnostics.begin("scenarios.id=${id}")
+        try{
             try{
-                val translator = TranslatorJava(inputSource, options)
-                translator.translateAndValidate()
-                val result : StreamResult = StreamResult(StringWriter())
-                translator.writeTo (result)
-                val translatedXML : String = result.getWriter()!!.toString()
-                uprs.updateString("xml", translatedXML)
-                            
-                uprs.updateRow()
-            }catch(e: DocumentException){
-                System.err.println("Error updating a document: ${e.getMessage()}")
-                if (errorCount < 2) e.printStackTrace()
-                ++errorCount
-                if (errorCount > 10){
-                    throw Exception("Too many errors encountered. Stopping.")
+                writer.add(id, translateScenario(xml, options, "scenarios.id=${id}"))
+            }finally{
+                endDiagnostics(options)
+            }
+        }catch(e: DocumentException){
+            errors.documentFailed(e)
+        }
+    }
+
+    val n = options.threads
+    val budget = if (n <= 1) null else heapBudget(options)
+    val workers: ThreadPoolExecutor? = if (n <= 1) null else
+        ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+            ArrayBlockingQueue<Runnable>(2 * n), ThreadPoolExecutor.CallerRunsPolicy())
+    val pageSize = options.dbFetchSize
+    val first : PreparedStatement = readCon.prepareStatement("SELECT id,xml FROM scenarios ORDER BY id",
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)!!
+    val next : PreparedStatement = readCon.prepareStatement("SELECT id,xml FROM scenarios WHERE id>? ORDER BY id",
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)!!
+    try{
+        first.setMaxRows(pageSize)
+        next.setMaxRows(pageSize)
+        first.setFetchSize(pageSize)
+        next.setFetchSize(pageSize)
+        var lastId : Any? = null
+        while (failure.get() == null && !errors.exhausted()){
+            val page = readPage(readCon, if (lastId == null) first else next, lastId)
+            if (page.isEmpty()) break
+            lastId = page.get(page.size - 1).id
+            for (row in page){
+                if (failure.get() != null || errors.exhausted()) break
+                val id = row.id
+                val xml = row.xml
+                if (workers == null){
+                    process(id, xml)
+                }else{
+                    workers.execute(object : Runnable {
+                        override fun run(){
+                            try{
+                                // xml is already in memory; this only bounds
+                                // the DOMs built at once
+                                val held = budget?.acquire(estimateHeap(budget, xml.length().toLong(), options)) ?: 0
+                                try{
+                                    process(id, xml)
+                                }finally{
+                                    budget?.release(held)
+                                }
+                            }catch(e: Throwable){
+                                failure.compareAndSet(null, e)
+                            }
+                        }
+                    })
                 }
             }
+            if (pageSize == 0 || page.size < pageSize) break
         }
     }finally{
-        con.close()
+        if (workers != null){
+            workers.shutdown()
+            workers.awaitTermination(java.lang.Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+        }
+        first.close()
+        next.close()
+        // Keep what was translated successfully, even when stopping early
+        if (failure.get() == null) writer.flush()
+        else try{ writer.flush() }catch(e: Exception){}
     }
+    val f = failure.get()
+    if (f != null) throw f
+    System.err.println("Updated ${writer.getWritten()} scenarios")
 }
@@ -0,0 +1,693 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/** Streaming (StAX) front-end for the translator.
+ *
+ * Some translation steps only need to see each element once, in document
+ * order. These are implemented here as event filters and applied while the
+ * document is read, so the full DOM translation (TranslatorJava) only starts
+ * at the first step which needs random access.
+ *
+ * A document to which no streamable step applies (the usual case: all
+ * recent ones) is parsed by the DocumentBuilder as before; the root element
+ * is first read with StAX to find its version. Otherwise the filtered
+ * events are built into a DOM equivalent to what a non-namespace-aware
+ * DocumentBuilder produces: element and attribute names are the qualified
+ * names used in the document and namespace declarations are attributes.
+ * Documents with a document type declaration, which that DOM could not
+ * reproduce, are always parsed by the DocumentBuilder, leaving all steps
+ * to the DOM translation.
+ *
+ * This class only depends on the JDK. */
+public final class StreamingTranslator {
+    private StreamingTranslator() {}
+
+    /** Thrown when a streamed translation step finds an error in the
+     * document. */
+    public static final class StepException extends XMLStreamException {
+        private static final long serialVersionUID = 1L;
+
+        public StepException( String msg ){
+            super( msg );
+        }
+    }
+
+    /** The document read, with the version it had in the input and the
+     * version it was translated to while reading. */
+    public static final class Result {
+        private final Document document;
+        private final int sourceVersion;
+        private final int version;
+        Result( Document document, int sourceVersion, int version ){
+            this.document = document;
+            this.sourceVersion = sourceVersion;
+            this.version = version;
+        }
+        public Document getDocument() { return document; }
+        public int getSourceVersion() { return sourceVersion; }
+        public int getVersion() { return version; }
+    }
+
+    /** A translation step which can be applied as an event filter. */
+    private static abstract class Step {
+        /** Wrap reader with this step's filter. */
+        abstract XMLEventReader filter( XMLEventReader reader );
+    }
+
+    /** Steps which change nothing (see TranslatorJava for reasons). */
+    private static final Step NO_OP = new Step() {
+        XMLEventReader filter( XMLEventReader reader ){
+            return reader;
+        }
+    };
+
+    /** Streamable steps, indexed by the version translated to. */
+    private static final Step[] steps = new Step[ 33 ];
+    static {
+        for( int version = 1; version < steps.length; ++version ){
+            if( TranslationPlan.isNoOp( version - 1 ) ) steps[ version ] = NO_OP;
+        }
+        steps[ 14 ] = new Step() {
+            XMLEventReader filter( XMLEventReader reader ){
+                return new Translate13To14( reader );
+            }
+        };
+        steps[ 18 ] = new Step() {
+            XMLEventReader filter( XMLEventReader reader ){
+                return new Translate17To18( reader );
+            }
+        };
+    }
+
+    /** True if the step translating to version toVersion can be streamed. */
+    public static boolean isStreamable( int toVersion ){
+        return toVersion >= 0 && toVersion < steps.length && steps[ toVersion ] != null;
+    }
+
+    private static final XMLInputFactory inputFactory = newInputFactory();
+    private static final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+    private static XMLInputFactory newInputFactory(){
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+        factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.FALSE );
+        try{
+            // the DOM keeps CDATA sections, so we need to see them
+            factory.setProperty( "http://java.sun.com/xml/stream/properties/report-cdata-event", Boolean.TRUE );
+        }catch( IllegalArgumentException e ){
+            // not supported by this StAX implementation; CDATA becomes text
+        }
+        return factory;
+    }
+
+    private static XMLEventReader newReader( InputSource input ) throws XMLStreamException {
+        // XMLInputFactory is thread-safe once configured; the system id is
+        // kept for error locations and relative references
+        String systemId = input.getSystemId();
+        if( input.getByteStream() != null ){
+            if( input.getEncoding() != null ){
+                // StAX takes an encoding or a system id with bytes, not both
+                return inputFactory.createXMLEventReader( systemId, decode( input.getByteStream(), input.getEncoding() ) );
+            }
+            return inputFactory.createXMLEventReader( new StreamSource( input.getByteStream(), systemId ) );
+        }
+        if( input.getCharacterStream() != null ){
+            return inputFactory.createXMLEventReader( systemId, input.getCharacterStream() );
+        }
+        return inputFactory.createXMLEventReader( new StreamSource( systemId ) );
+    }
+
+    /** Characters of bytes in encoding, which overrides the XML declaration
+     * (as for SAX). A byte order mark is dropped: parsers reject it in
+     * characters. */
+    private static Reader decode( InputStream bytes, String encoding ) throws XMLStreamException {
+        try{
+            PushbackReader reader = new PushbackReader( new InputStreamReader( bytes, encoding ) );
+            int c = reader.read();
+            if( c != 0xFEFF && c != -1 ) reader.unread( c );
+            return reader;
+        }catch( IOException e ){
+            throw new XMLStreamException( "cannot read input as " + encoding + ": " + e.getMessage(), e );
+        }
+    }
+
+    /** Read a scenario, applying the streamable steps which immediately
+     * follow its schema version (but none beyond targetVersion).
+     *
+     * The schemaVersion attribute of the result is updated to the version
+     * reached; other root attributes are left to the caller.
+     *
+     * @param builder Used to parse the document, or to create the (empty)
+     * document built from streamed events. */
+    public static Result parse( InputSource input, DocumentBuilder builder, int targetVersion )
+            throws XMLStreamException, SAXException, IOException
+    {
+        Replay replay = new Replay( input );
+        Prolog prolog = readProlog( replay.first() );
+        int version = prolog.version;
+        if( !prolog.hasDoctype ){
+            while( version < targetVersion && isStreamable( version + 1 ) ) ++version;
+        }
+        if( version == prolog.version ){
+            return new Result( builder.parse( replay.again() ), version, version );
+        }
+
+        XMLEventReader reader = newReader( replay.again() );
+        try{
+            for( int v = prolog.version + 1; v <= version; ++v ){
+                reader = steps[ v ].filter( reader );
+            }
+            reader = new SetVersion( reader, version );
+            Document document = builder.newDocument();
+            DOMBuilder dom = new DOMBuilder( document );
+            while( reader.hasNext() ){
+                dom.add( reader.nextEvent() );
+            }
+            return new Result( document, prolog.version, version );
+        }finally{
+            reader.close();
+        }
+    }
+
+    /** What parse needs to know before reading a document in full. */
+    private static final class Prolog {
+        boolean hasDoctype = false;
+        int version;
+    }
+
+    /** Read input up to its root element. */
+    private static Prolog readProlog( InputSource input ) throws XMLStreamException {
+        XMLEventReader reader = newReader( input );
+        try{
+            Prolog prolog = new Prolog();
+            while( reader.hasNext() ){
+                XMLEvent event = reader.nextEvent();
+                if( event.getEventType() == XMLStreamConstants.DTD ) prolog.hasDoctype = true;
+                if( event.isStartElement() ){
+                    prolog.version = readVersion( event.asStartElement() );
+                    return prolog;
+                }
+            }
+            throw new XMLStreamException( "document has no root element" );
+        }finally{
+            reader.close();
+        }
+    }
+
+    /** Lets an InputSource be read twice: first (usually only in part) by
+     * readProlog, then in full. What the first reading consumed from a byte
+     * or character stream is kept and read again; a system id alone is
+     * simply opened again. */
+    private static final class Replay {
+        private final InputSource input;
+        private RecordingInputStream bytes = null;
+        private RecordingReader chars = null;
+
+        Replay( InputSource input ){
+            this.input = input;
+        }
+
+        InputSource first(){
+            InputSource source = copy();
+            if( input.getByteStream() != null ){
+                bytes = new RecordingInputStream( input.getByteStream() );
+                source.setByteStream( bytes );
+            }else if( input.getCharacterStream() != null ){
+                chars = new RecordingReader( input.getCharacterStream() );
+                source.setCharacterStream( chars );
+            }
+            return source;
+        }
+
+        InputSource again(){
+            InputSource source = copy();
+            if( bytes != null ){
+                source.setByteStream( new SequenceInputStream(
+                    new ByteArrayInputStream( bytes.recorded.toByteArray() ), input.getByteStream() ) );
+            }else if( chars != null ){
+                source.setCharacterStream( new ReplayReader( chars.recorded.toCharArray(), input.getCharacterStream() ) );
+            }
+            return source;
+        }
+
+        private InputSource copy(){
+            InputSource source = new InputSource( input.getSystemId() );
+            source.setPublicId( input.getPublicId() );
+            source.setEncoding( input.getEncoding() );
+            return source;
+        }
+    }
+
+    /** Keeps the bytes read. Closing does not close the underlying stream,
+     * which is read again. */
+    private static final class RecordingInputStream extends FilterInputStream {
+        final ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+        RecordingInputStream( InputStream in ){
+            super( in );
+        }
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if( b >= 0 ) recorded.write( b );
+            return b;
+        }
+        @Override
+        public int read( byte[] buffer, int offset, int length ) throws IOException {
+            int n = super.read( buffer, offset, length );
+            if( n > 0 ) recorded.write( buffer, offset, n );
+            return n;
+        }
+        @Override
+        public long skip( long n ) throws IOException {
+            // recorded, unlike super.skip; skipping less is allowed
+            return n <= 0 || read() < 0 ? 0 : 1;
+        }
+        @Override
+        public boolean markSupported(){
+            return false;
+        }
+        @Override
+        public void close(){}
+    }
+
+    /** Keeps the characters read. Closing does not close the underlying
+     * reader, which is read again. */
+    private static final class RecordingReader extends FilterReader {
+        final CharArrayWriter recorded = new CharArrayWriter();
+        RecordingReader( Reader in ){
+            super( in );
+        }
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if( c >= 0 ) recorded.write( c );
+            return c;
+        }
+        @Override
+        public int read( char[] buffer, int offset, int length ) throws IOException {
+            int n = super.read( buffer, offset, length );
+            if( n > 0 ) recorded.write( buffer, offset, n );
+            return n;
+        }
+        @Override
+        public long skip( long n ) throws IOException {
+            return n <= 0 || read() < 0 ? 0 : 1;
+        }
+        @Override
+        public boolean markSupported(){
+            return false;
+        }
+        @Override
+        public void close(){}
+    }
+
+    /** Reads the characters recorded by a RecordingReader, then the rest of
+     * its underlying reader. */
+    private static final class ReplayReader extends Reader {
+        private final char[] head;
+        private int pos = 0;
+        private final Reader rest;
+        ReplayReader( char[] head, Reader rest ){
+            this.head = head;
+            this.rest = rest;
+        }
+        @Override
+        public int read( char[] buffer, int offset, int length ) throws IOException {
+            if( pos < head.length ){
+                int n = Math.min( length, head.length - pos );
+                System.arraycopy( head, pos, buffer, offset, n );
+                pos += n;
+                return n;
+            }
+            return rest.read( buffer, offset, length );
+        }
+        @Override
+        public void close() throws IOException {
+            rest.close();
+        }
+    }
+
+    /** Read only the schema version of a scenario (0 if missing), stopping
+     * at its root element. */
+    public static int readVersion( InputSource input ) throws XMLStreamException {
+        return readProlog( input ).version;
+    }
+
+    /** Validate input while reading it, without building a DOM.
+     *
+     * Attributes of the root element named (by qualified name) in
+     * rootAttributes are first replaced by the given values, or removed
+     * where the value is null; names to set must not have a prefix. Errors
+     * are reported to the validator's error handler. */
+    public static void validate( InputSource input, Validator validator, Map<String, String> rootAttributes )
+        throws XMLStreamException, SAXException, IOException
+    {
+        XMLEventReader reader = new RootAttributes( newReader( input ), rootAttributes );
+        try{
+            validator.validate( new StAXSource( reader ) );
+        }finally{
+            reader.close();
+        }
+    }
+
+    /** Result for a document parsed elsewhere: no steps are applied. */
+    public static Result fromDocument( Document document ) throws StepException {
+        String attr = document.getDocumentElement().getAttribute( "schemaVersion" ).trim();
+        int version;
+        try{
+            version = attr.length() == 0 ? 0 : Integer.parseInt( attr );
+        }catch( NumberFormatException e ){
+            throw new StepException( "invalid schemaVersion: " + attr );
+        }
+        return new Result( document, version, version );
+    }
+
+    /** Read the schemaVersion attribute of the root element (0 if missing). */
+    static int readVersion( StartElement root ) throws XMLStreamException {
+        Attribute attr = root.getAttributeByName( new QName( "schemaVersion" ) );
+        if( attr == null || attr.getValue().trim().length() == 0 ) return 0;
+        try{
+            return Integer.parseInt( attr.getValue().trim() );
+        }catch( NumberFormatException e ){
+            throw new StepException( "invalid schemaVersion: " + attr.getValue() );
+        }
+    }
+
+    private static String qualifiedName( QName name ){
+        String prefix = name.getPrefix();
+        if( prefix == null || prefix.length() == 0 ) return name.getLocalPart();
+        return prefix + ":" + name.getLocalPart();
+    }
+
+    /** Builds DOM nodes from events. */
+    private static final class DOMBuilder {
+        private final Document document;
+        private Node current;
+        DOMBuilder( Document document ){
+            this.document = document;
+            this.current = document;
+        }
+
+        void add( XMLEvent event ){
+            switch( event.getEventType() ){
+            case XMLEvent.START_DOCUMENT: {
+                StartDocument start = (StartDocument) event;
+                if( start.standaloneSet() ) document.setXmlStandalone( start.isStandalone() );
+                if( "1.1".equals( start.getVersion() ) ) document.setXmlVersion( "1.1" );
+                break;
+            }
+            case XMLEvent.START_ELEMENT: {
+                StartElement start = event.asStartElement();
+                Element elt = document.createElement( qualifiedName( start.getName() ) );
+                for( Iterator<?> it = start.getNamespaces(); it.hasNext(); ){
+                    Namespace ns = (Namespace) it.next();
+                    String prefix = ns.getPrefix();
+                    elt.setAttribute( prefix == null || prefix.length() == 0 ? "xmlns" : "xmlns:" + prefix,
+                            ns.getNamespaceURI() );
+                }
+                for( Iterator<?> it = start.getAttributes(); it.hasNext(); ){
+                    Attribute attr = (Attribute) it.next();
+                    elt.setAttribute( qualifiedName( attr.getName() ), attr.getValue() );
+                }
+                current.appendChild( elt );
+                current = elt;
+                break;
+            }
+            case XMLEvent.END_ELEMENT:
+                current = current.getParentNode();
+                break;
+            case XMLEvent.CHARACTERS:
+            case XMLEvent.SPACE: {
+                if( current == document ) break;   // whitespace outside the root element
+                String data = event.asCharacters().getData();
+                Node last = current.getLastChild();
+                if( last != null && last.getNodeType() == Node.TEXT_NODE ){
+                    ((Text) last).appendData( data );     // StAX may split text; DOM doesn't
+                }else{
+                    current.appendChild( document.createTextNode( data ) );
+                }
+                break;
+            }
+            case XMLEvent.CDATA:
+                current.appendChild( document.createCDATASection( ((Characters) event).getData() ) );
+                break;
+            case XMLEvent.COMMENT:
+                current.appendChild( document.createComment( ((Comment) event).getText() ) );
+                break;
+            case XMLEvent.PROCESSING_INSTRUCTION: {
+                ProcessingInstruction pi = (ProcessingInstruction) event;
+                current.appendChild( document.createProcessingInstruction( pi.getTarget(), pi.getData() ) );
+                break;
+            }
+            default:
+                // END_DOCUMENT, entity declarations: nothing to build (parse
+                // does not stream documents with a DTD)
+                break;
+            }
+        }
+    }
+
+    /** Copy of start with attributes replaced. */
+    private static StartElement withAttributes( StartElement start, List<Attribute> attributes ){
+        return eventFactory.createStartElement( start.getName(), attributes.iterator(), start.getNamespaces() );
+    }
+
+    private static List<Attribute> attributes( StartElement start ){
+        List<Attribute> result = new ArrayList<Attribute>();
+        for( Iterator<?> it = start.getAttributes(); it.hasNext(); ){
+            result.add( (Attribute) it.next() );
+        }
+        return result;
+    }
+
+    /** Base for filters which need to know the depth of elements (the root
+     * element has depth 0). */
+    private static abstract class DepthFilter extends EventReaderDelegate {
+        private int depth = -1;
+        DepthFilter( XMLEventReader reader ){
+            super( reader );
+        }
+        @Override
+        public XMLEvent nextEvent() throws XMLStreamException {
+            XMLEvent event = super.nextEvent();
+            if( event.isStartElement() ){
+                ++depth;
+                return startElement( event.asStartElement(), depth );
+            }else if( event.isEndElement() ){
+                endElement( depth );
+                --depth;
+            }
+            return event;
+        }
+        @Override
+        public Object next() {
+            try{
+                return nextEvent();
+            }catch( XMLStreamException e ){
+                throw new RuntimeException( e );
+            }
+        }
+        @Override
+        public XMLEvent nextTag() throws XMLStreamException {
+            // as EventReaderDelegate, but through our nextEvent
+            XMLEvent event = nextEvent();
+            while( (event.isCharacters() && event.asCharacters().isWhiteSpace()) ||
+                   event.isProcessingInstruction() ||
+                   event.getEventType() == XMLStreamConstants.COMMENT ){
+                event = nextEvent();
+            }
+            if( !event.isStartElement() && !event.isEndElement() ){
+                throw new XMLStreamException( "expected start or end tag", event.getLocation() );
+            }
+            return event;
+        }
+
+        /** Called for each start element; return the (possibly modified)
+         * element to pass on. */
+        abstract StartElement startElement( StartElement start, int depth ) throws XMLStreamException;
+        /** Called for each end element. */
+        void endElement( int depth ) throws XMLStreamException {}
+    }
+
+    /** Updates the schemaVersion attribute of the root element. */
+    private static final class SetVersion extends DepthFilter {
+        private final int version;
+        SetVersion( XMLEventReader reader, int version ){
+            super( reader );
+            this.version = version;
+        }
+        StartElement startElement( StartElement start, int depth ){
+            if( depth != 0 ) return start;
+            List<Attribute> attrs = attributes( start );
+            for( Iterator<Attribute> it = attrs.iterator(); it.hasNext(); ){
+                if( it.next().getName().getLocalPart().equals( "schemaVersion" ) ) it.remove();
+            }
+            attrs.add( eventFactory.createAttribute( "schemaVersion", Integer.toString( version ) ) );
+            return withAttributes( start, attrs );
+        }
+    }
+
+    /** Replaces attributes of the root element (see validate()). */
+    private static final class RootAttributes extends DepthFilter {
+        private final Map<String, String> replace;
+        RootAttributes( XMLEventReader reader, Map<String, String> replace ){
+            super( reader );
+            this.replace = replace;
+        }
+        StartElement startElement( StartElement start, int depth ){
+            if( depth != 0 ) return start;
+            List<Attribute> attrs = attributes( start );
+            for( Iterator<Attribute> it = attrs.iterator(); it.hasNext(); ){
+                if( replace.containsKey( qualifiedName( it.next().getName() ) ) ) it.remove();
+            }
+            for( Map.Entry<String, String> e : replace.entrySet() ){
+                if( e.getValue() != null ) attrs.add( eventFactory.createAttribute( e.getKey(), e.getValue() ) );
+            }
+            return withAttributes( start, attrs );
+        }
+    }
+
+    /** See TranslatorJava.translate13To14. */
+    private static final class Translate13To14 extends DepthFilter {
+        private boolean warned = false;
+        Translate13To14( XMLEventReader reader ){
+            super( reader );
+        }
+        StartElement startElement( StartElement start, int depth ){
+            if( depth > 0 && !warned && qualifiedName( start.getName() ).equals( "drugDescription" ) ){
+                Diagnostics.report( "translate13To14", Diagnostics.Severity.WARNING, "drugDescription-changed",
+                    "drugDescription element has changed; please rewrite manually." );
+                warned = true;
+            }
+            return start;
+        }
+    }
+
+    /** See TranslatorJava.translate17To18: popSize and maximumAgeYrs move from
+     * the root element to demography, mode to entoData. */
+    private static final class Translate17To18 extends DepthFilter {
+        private String rootName;
+        private Attribute popSize, maxAgeYrs, mode;
+        private int nDemography = 0, nEntoData = 0;
+        Translate17To18( XMLEventReader reader ){
+            super( reader );
+        }
+        StartElement startElement( StartElement start, int depth ) throws XMLStreamException {
+            if( depth == 0 ){
+                rootName = qualifiedName( start.getName() );
+                List<Attribute> attrs = attributes( start );
+                for( Iterator<Attribute> it = attrs.iterator(); it.hasNext(); ){
+                    Attribute attr = it.next();
+                    String name = qualifiedName( attr.getName() );
+                    if( name.equals( "popSize" ) ){
+                        popSize = attr;
+                        it.remove();
+                    }else if( name.equals( "maximumAgeYrs" ) ){
+                        maxAgeYrs = attr;
+                        it.remove();
+                    }else if( name.equals( "mode" ) ){
+                        mode = attr;
+                        it.remove();
+                    }
+                }
+                if( popSize == null || maxAgeYrs == null || mode == null ){
+                    throw new StepException( "Expected " + rootName + " to have attributes popSize, maximumAgeYrs and mode" );
+                }
+                return withAttributes( start, attrs );
+            }else if( depth == 1 ){
+                String name = qualifiedName( start.getName() );
+                if( name.equals( "demography" ) ){
+                    ++nDemography;
+                    return moveTo( start, popSize, maxAgeYrs );
+                }else if( name.equals( "entoData" ) ){
+                    ++nEntoData;
+                    return moveTo( start, mode, null );
+                }
+            }
+            return start;
+        }
+        void endElement( int depth ) throws XMLStreamException {
+            if( depth == 0 ){
+                checkChild( nDemography, "demography" );
+                checkChild( nEntoData, "entoData" );
+            }
+        }
+        private void checkChild( int count, String name ) throws StepException {
+            // same requirement (and messages) as Translator.getChildElement
+            if( count > 1 )
+                throw new StepException( "Expected " + rootName + " not to have more than one sub-element with name " + name );
+            if( count == 0 )
+                throw new StepException( "Node " + rootName + " does not have required child " + name );
+        }
+        private static StartElement moveTo( StartElement start, Attribute a, Attribute b ){
+            List<Attribute> attrs = attributes( start );
+            for( Iterator<Attribute> it = attrs.iterator(); it.hasNext(); ){
+                QName name = it.next().getName();
+                if( name.equals( a.getName() ) || (b != null && name.equals( b.getName() )) ) it.remove();
+            }
+            attrs.add( a );
+            if( b != null ) attrs.add( b );
+            return withAttributes( start, attrs );
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Rescales values measured in time steps when the length of a time step
+ * changes, e.g. from 5 days to 1 day (see TranslatorJava.oDTTranslation).
+ *
+ * Which values are in time steps is given by a table of paths, each either
+ * a time point or a duration:
+ *
+ *   "element"               text of every element of that name
+ *   "parent/element"        the same, only for children of parent
+ *   "element@attribute"     an attribute of every element of that name
+ *   "parent/element@attr"   the same, only for children of parent
+ *
+ * Time points count steps from 1, so point t becomes
+ * (t - 1) * from / to + 1; durations become d * from / to. Values which
+ * don't convert to a whole number of new steps are rounded to the nearest
+ * one, with a warning. All paths are rescaled in one pass over the
+ * document.
+ *
+ * Tables are built once (e.g. in a static field) and may then be shared
+ * between threads. This class only depends on the JDK. */
+public final class TimeRescaler {
+    public enum Kind { TIME_POINT, DURATION }
+
+    private static final class Rule {
+        final String parent;        // null: any parent
+        final String attribute;     // null: text of the element
+        final Kind kind;
+        Rule( String parent, String attribute, Kind kind ){
+            this.parent = parent;
+            this.attribute = attribute;
+            this.kind = kind;
+        }
+    }
+
+    /** Rules by element name. */
+    private final Map<String, List<Rule>> rules = new HashMap<String, List<Rule>>();
+
+    /** Add a path (see class description) to a time point. */
+    public TimeRescaler timePoint( String path ){
+        return add( path, Kind.TIME_POINT );
+    }
+
+    /** Add a path (see class description) to a duration. */
+    public TimeRescaler duration( String path ){
+        return add( path, Kind.DURATION );
+    }
+
+    public TimeRescaler add( String path, Kind kind ){
+        String attribute = null, parent = null, element = path;
+        int at = element.indexOf( '@' );
+        if( at >= 0 ){
+            attribute = element.substring( at + 1 );
+            element = element.substring( 0, at );
+        }
+        int slash = element.lastIndexOf( '/' );
+        if( slash >= 0 ){
+            parent = element.substring( 0, slash );
+            element = element.substring( slash + 1 );
+        }
+        if( element.isEmpty() || (parent != null && parent.isEmpty()) ||
+            (attribute != null && attribute.isEmpty()) ){
+            throw new IllegalArgumentException( "bad time path: " + path );
+        }
+        List<Rule> list = rules.get( element );
+        if( list == null ){
+            list = new ArrayList<Rule>( 1 );
+            rules.put( element, list );
+        }
+        list.add( new Rule( parent, attribute, kind ) );
+        return this;
+    }
+
+    /** Rescale all values of the table under (and including) root from time
+     * steps of fromDays to time steps of toDays. Returns the number of
+     * values changed.
+     *
+     * Throws NumberFormatException if a value is not an integer. */
+    public int rescale( Element root, int fromDays, int toDays ){
+        if( fromDays <= 0 || toDays <= 0 ){
+            throw new IllegalArgumentException( "time step lengths must be positive" );
+        }
+        if( fromDays == toDays ) return 0;
+        return visit( root, fromDays, toDays );
+    }
+
+    private int visit( Element elt, int fromDays, int toDays ){
+        int changed = 0;
+        List<Rule> list = rules.get( elt.getNodeName() );
+        if( list != null ){
+            Node parent = elt.getParentNode();
+            String parentName = parent == null ? null : parent.getNodeName();
+            for( Rule rule : list ){
+                if( rule.parent != null && !rule.parent.equals( parentName ) ) continue;
+                if( rule.attribute == null ){
+                    elt.setTextContent( convert( elt.getTextContent(), rule.kind, fromDays, toDays, elt.getNodeName() ) );
+                    ++changed;
+                }else{
+                    Attr attr = elt.getAttributeNode( rule.attribute );
+                    if( attr == null ) continue;
+                    attr.setValue( convert( attr.getValue(), rule.kind, fromDays, toDays,
+                        elt.getNodeName() + "@" + rule.attribute ) );
+                    ++changed;
+                }
+            }
+        }
+        for( Node child = elt.getFirstChild(); child != null; child = child.getNextSibling() ){
+            if( child.getNodeType() == Node.ELEMENT_NODE ){
+                changed += visit( (Element) child, fromDays, toDays );
+            }
+        }
+        return changed;
+    }
+
+    private static String convert( String value, Kind kind, int fromDays, int toDays, String what ){
+        long steps;
+        try{
+            steps = Long.parseLong( value.trim() );
+        }catch( NumberFormatException e ){
+            throw new NumberFormatException( what + ": expected a whole number of time steps, found \"" + value + "\"" );
+        }
+        long days = kind == Kind.TIME_POINT ? (steps - 1) * fromDays : steps * fromDays;
+        long result = days / toDays;
+        long remainder = days - result * toDays;
+        if( remainder != 0 ){
+            // round half away from zero
+            if( 2 * Math.abs( remainder ) >= toDays ) result += Long.signum( remainder );
+            Diagnostics.warning( "time-rounded", what + ": " + value + " steps of " + fromDays +
+                " days is not a whole number of " + toDays + "-day steps; rounded" );
+        }
+        if( kind == Kind.TIME_POINT ) result += 1;
+        return Long.toString( result );
+    }
+}
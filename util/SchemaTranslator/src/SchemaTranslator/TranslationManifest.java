@@ -0,0 +1,209 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Manifest of translated files, used to skip unchanged inputs.
+ *
+ * For each output file (by path relative to the output folder) the manifest
+ * stores a key: a hash of everything the result depends on (input bytes,
+ * options, schemas, and the translator's own code). If an input's key matches the one recorded by the
+ * previous run, translating it again would give the same result.
+ *
+ * The manifest is a text file in the output folder with one line per file,
+ * "KEY PATH". Only files recorded during the current run are written by
+ * save(), so entries of removed inputs disappear.
+ *
+ * This class only depends on the JDK. */
+public final class TranslationManifest {
+    /** Name of the manifest file within the output folder. */
+    public static final String FILE_NAME = ".translation-manifest";
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private final File file;
+    private final Map<String, String> previous;
+    private final ConcurrentHashMap<String, String> current = new ConcurrentHashMap<String, String>();
+
+    private TranslationManifest( File file, Map<String, String> previous ){
+        this.file = file;
+        this.previous = previous;
+    }
+
+    /** Read the manifest of folder (empty if there is none). */
+    public static TranslationManifest load( File folder ) throws IOException {
+        File file = new File( folder, FILE_NAME );
+        Map<String, String> entries = new HashMap<String, String>();
+        if( file.exists() ){
+            BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), UTF8 ) );
+            try{
+                String line;
+                while( (line = reader.readLine()) != null ){
+                    int sep = line.indexOf( ' ' );
+                    if( sep > 0 ) entries.put( line.substring( sep + 1 ), line.substring( 0, sep ) );
+                }
+            }finally{
+                reader.close();
+            }
+        }
+        return new TranslationManifest( file, entries );
+    }
+
+    /** True if path was recorded with key by the previous run. */
+    public boolean isUnchanged( String path, String key ){
+        return key.equals( previous.get( path ) );
+    }
+
+    /** Record that path was produced from inputs with the given key. */
+    public void record( String path, String key ){
+        current.put( path, key );
+    }
+
+    /** Write the entries recorded by this run, replacing the old manifest. */
+    public void save() throws IOException {
+        File temp = new File( file.getPath() + ".tmp" );
+        Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( temp ), UTF8 ) );
+        try{
+            for( Map.Entry<String, String> entry : new TreeMap<String, String>( current ).entrySet() ){
+                writer.write( entry.getValue() );
+                writer.write( ' ' );
+                writer.write( entry.getKey() );
+                writer.write( '\n' );
+            }
+        }finally{
+            writer.close();
+        }
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /** Hex SHA-256 of input followed by context (in UTF-8). */
+    public static String hash( byte[] input, String context ){
+        MessageDigest digest = sha256();
+        updateLength( digest, input.length );
+        digest.update( input );
+        digest.update( context.getBytes( UTF8 ) );
+        return hex( digest.digest() );
+    }
+
+    /** Hex SHA-256 over names and contents of all files in dir whose name
+     * ends with suffix. */
+    public static String checksumFiles( File dir, String suffix ) throws IOException {
+        String[] names = dir.list();
+        if( names == null ) throw new IOException( "not a directory: " + dir );
+        Arrays.sort( names );
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[ 8192 ];
+        for( String name : names ){
+            if( !name.endsWith( suffix ) ) continue;
+            byte[] nameBytes = name.getBytes( UTF8 );
+            updateLength( digest, nameBytes.length );
+            digest.update( nameBytes );
+            updateFile( digest, new File( dir, name ), buffer );
+        }
+        return hex( digest.digest() );
+    }
+
+    /** Hex SHA-256 identifying the translator's code: of the jar it was
+     * loaded from, or of the class files of its package when run from a
+     * folder of classes. Any change to the translator, e.g. to a step,
+     * changes it, so results of an older build are not taken as current.
+     *
+     * Throws IOException if the code cannot be located. */
+    public static String checksumTranslator() throws IOException {
+        CodeSource source = TranslationManifest.class.getProtectionDomain().getCodeSource();
+        if( source == null || source.getLocation() == null ){
+            throw new IOException( "cannot locate the translator's code to identify it" );
+        }
+        File location;
+        try{
+            location = new File( source.getLocation().toURI() );
+        }catch( URISyntaxException e ){
+            throw new IOException( "cannot locate the translator's code to identify it", e );
+        }catch( IllegalArgumentException e ){
+            // not a file: URI
+            throw new IOException( "cannot locate the translator's code to identify it", e );
+        }
+        if( location.isDirectory() ){
+            String pkg = TranslationManifest.class.getPackage().getName();
+            return checksumFiles( new File( location, pkg.replace( '.', File.separatorChar ) ), ".class" );
+        }
+        MessageDigest digest = sha256();
+        updateFile( digest, location, new byte[ 8192 ] );
+        return hex( digest.digest() );
+    }
+
+    private static void updateFile( MessageDigest digest, File file, byte[] buffer ) throws IOException {
+        updateLength( digest, (int) file.length() );
+        InputStream in = new FileInputStream( file );
+        try{
+            int n;
+            while( (n = in.read( buffer )) > 0 ) digest.update( buffer, 0, n );
+        }finally{
+            in.close();
+        }
+    }
+
+    private static MessageDigest sha256(){
+        try{
+            return MessageDigest.getInstance( "SHA-256" );
+        }catch( NoSuchAlgorithmException e ){
+            // every JRE is required to support SHA-256
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static void updateLength( MessageDigest digest, int length ){
+        digest.update( (byte) (length >>> 24) );
+        digest.update( (byte) (length >>> 16) );
+        digest.update( (byte) (length >>> 8) );
+        digest.update( (byte) length );
+    }
+
+    private static String hex( byte[] bytes ){
+        StringBuilder s = new StringBuilder( bytes.length * 2 );
+        for( byte b : bytes ){
+            s.append( Character.forDigit( (b >> 4) & 0xF, 16 ) );
+            s.append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,293 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Time, allocation and DOM changes per phase of translation (--metrics).
+ *
+ * Phases are "parse" (including steps applied while streaming),
+ * "translateXToY" for each translation step, "oDTTranslation", "validate"
+ * and "writeTo". Each document is measured by its own Recorder, on the
+ * thread translating it; finished recorders are added to the run's
+ * TranslationMetrics, which can be written as CSV or JSON.
+ *
+ * Nodes (of all kinds but attributes) are counted when inserted into or
+ * removed from the document, with all nodes below them: appending a
+ * subtree built apart counts each of its nodes once. Moving a node counts
+ * as removal and creation of its subtree. Renaming is counted by the
+ * translator (see Translator.renameElement), also when the DOM renames by
+ * replacing the element. Allocated bytes are -1 where the JVM cannot
+ * measure them.
+ *
+ * This class only depends on the JDK. */
+public final class TranslationMetrics {
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    /** Order of phases in the report: parse, steps by version, then the
+     * rest in the order they run. */
+    private static final int ORDER_PARSE = -1;
+    private static final int ORDER_ODT = 1000;
+    private static final int ORDER_VALIDATE = 1001;
+    private static final int ORDER_WRITE = 1002;
+
+    /** Totals for one phase. */
+    public static final class Figures {
+        final String phase;
+        final int order;
+        int count = 0;
+        long wallNanos = 0;
+        long maxWallNanos = 0;
+        long allocatedBytes = 0;
+        long nodesCreated = 0;
+        long nodesRenamed = 0;
+        long nodesRemoved = 0;
+
+        Figures( String phase, int order ){
+            this.phase = phase;
+            this.order = order;
+        }
+
+        void add( Figures f ){
+            count += f.count;
+            wallNanos += f.wallNanos;
+            maxWallNanos = Math.max( maxWallNanos, f.maxWallNanos );
+            allocatedBytes = allocatedBytes < 0 || f.allocatedBytes < 0 ? -1 : allocatedBytes + f.allocatedBytes;
+            nodesCreated += f.nodesCreated;
+            nodesRenamed += f.nodesRenamed;
+            nodesRemoved += f.nodesRemoved;
+        }
+    }
+
+    /** Measures the phases of one document. Not thread-safe: use from the
+     * thread translating the document. */
+    public static final class Recorder {
+        private final Map<String, Figures> phases = new HashMap<String, Figures>();
+        private long nodesCreated = 0;
+        private long nodesRenamed = 0;
+        private long nodesRemoved = 0;
+
+        private long beginWall, beginAlloc, beginCreated, beginRenamed, beginRemoved;
+
+        /** True while renaming: changes are part of the rename. */
+        private boolean renaming = false;
+
+        private EventTarget watched = null;
+        // mutation events fire once per subtree, for its root
+        private final EventListener inserted = new EventListener() {
+            public void handleEvent( Event evt ){
+                if( !renaming ) nodesCreated += countNodes( (Node) evt.getTarget() );
+            }
+        };
+        private final EventListener removed = new EventListener() {
+            public void handleEvent( Event evt ){
+                if( !renaming ) nodesRemoved += countNodes( (Node) evt.getTarget() );
+            }
+        };
+
+        private Recorder(){}
+
+        /** Count insertions and removals of nodes in document. Call once the
+         * document has been parsed; stop with unwatch. */
+        public void watch( Document document ){
+            watched = (EventTarget) document;
+            watched.addEventListener( "DOMNodeInserted", inserted, true );
+            watched.addEventListener( "DOMNodeRemoved", removed, true );
+        }
+
+        /** Stop counting changes to the document given to watch (if any). */
+        public void unwatch(){
+            if( watched == null ) return;
+            watched.removeEventListener( "DOMNodeInserted", inserted, true );
+            watched.removeEventListener( "DOMNodeRemoved", removed, true );
+            watched = null;
+        }
+
+        /** Count a renamed node. Call before renaming and endRename after,
+         * so that replacing the node is not also counted as a removal and
+         * a creation. */
+        public void beginRename(){
+            ++nodesRenamed;
+            renaming = true;
+        }
+
+        public void endRename(){
+            renaming = false;
+        }
+
+        /** Start measuring a phase; end with one of the end*() methods. */
+        public void begin(){
+            beginAlloc = allocatedBytes();
+            beginCreated = nodesCreated;
+            beginRenamed = nodesRenamed;
+            beginRemoved = nodesRemoved;
+            beginWall = System.nanoTime();
+        }
+
+        public void endParse(){
+            end( "parse", ORDER_PARSE );
+        }
+
+        /** End the step from fromVersion to fromVersion+1. */
+        public void endStep( int fromVersion ){
+            end( Diagnostics.stepName( fromVersion ), fromVersion );
+        }
+
+        public void endODTTranslation(){
+            end( "oDTTranslation", ORDER_ODT );
+        }
+
+        public void endValidate(){
+            end( "validate", ORDER_VALIDATE );
+        }
+
+        public void endWriteTo(){
+            end( "writeTo", ORDER_WRITE );
+        }
+
+        private void end( String phase, int order ){
+            long wall = System.nanoTime() - beginWall;
+            long alloc = allocatedBytes();
+            Figures f = phases.get( phase );
+            if( f == null ){
+                f = new Figures( phase, order );
+                phases.put( phase, f );
+            }
+            f.count += 1;
+            f.wallNanos += wall;
+            f.maxWallNanos = Math.max( f.maxWallNanos, wall );
+            f.allocatedBytes = alloc < 0 || f.allocatedBytes < 0 ? -1 : f.allocatedBytes + alloc - beginAlloc;
+            f.nodesCreated += nodesCreated - beginCreated;
+            f.nodesRenamed += nodesRenamed - beginRenamed;
+            f.nodesRemoved += nodesRemoved - beginRemoved;
+        }
+    }
+
+    /** Number of nodes in the subtree of node, excluding attributes. */
+    private static long countNodes( Node node ){
+        long n = 1;
+        for( Node child = node.getFirstChild(); child != null; child = child.getNextSibling() ){
+            n += countNodes( child );
+        }
+        return n;
+    }
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final boolean allocationSupported = initAllocationSupport();
+
+    private static boolean initAllocationSupport(){
+        if( !(threadBean instanceof com.sun.management.ThreadMXBean) ) return false;
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+        if( !bean.isThreadAllocatedMemorySupported() ) return false;
+        if( !bean.isThreadAllocatedMemoryEnabled() ) bean.setThreadAllocatedMemoryEnabled( true );
+        return true;
+    }
+
+    /** Bytes allocated by the calling thread so far, or -1. */
+    private static long allocatedBytes(){
+        if( !allocationSupported ) return -1;
+        return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+            Thread.currentThread().getId() );
+    }
+
+    private final Map<String, Figures> totals = new HashMap<String, Figures>();
+    private int documents = 0;
+
+    /** Recorder for a new document. */
+    public Recorder newRecorder(){
+        return new Recorder();
+    }
+
+    /** Add the figures of a finished document. */
+    public synchronized void add( Recorder recorder ){
+        ++documents;
+        for( Figures f : recorder.phases.values() ){
+            Figures total = totals.get( f.phase );
+            if( total == null ){
+                total = new Figures( f.phase, f.order );
+                totals.put( f.phase, total );
+            }
+            total.add( f );
+        }
+    }
+
+    /** Number of documents added. */
+    public synchronized int getDocuments(){
+        return documents;
+    }
+
+    /** Write totals per phase to path: JSON if path ends with ".json",
+     * otherwise CSV. */
+    public synchronized void write( String path ) throws IOException {
+        List<Figures> rows = new ArrayList<Figures>( totals.values() );
+        Collections.sort( rows, new Comparator<Figures>() {
+            public int compare( Figures a, Figures b ){
+                return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+            }
+        } );
+        Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( path ), UTF8 ) );
+        try{
+            if( path.endsWith( ".json" ) ) writeJSON( writer, rows );
+            else writeCSV( writer, rows );
+        }finally{
+            writer.close();
+        }
+    }
+
+    private void writeCSV( Writer w, List<Figures> rows ) throws IOException {
+        w.write( "phase,count,wallNanos,maxWallNanos,allocatedBytes,nodesCreated,nodesRenamed,nodesRemoved\n" );
+        for( Figures f : rows ){
+            w.write( f.phase + "," + f.count + "," + f.wallNanos + "," + f.maxWallNanos + "," +
+                f.allocatedBytes + "," + f.nodesCreated + "," + f.nodesRenamed + "," + f.nodesRemoved + "\n" );
+        }
+    }
+
+    private void writeJSON( Writer w, List<Figures> rows ) throws IOException {
+        w.write( "{\n  \"documents\": " + documents + ",\n  \"phases\": [" );
+        for( int i = 0; i < rows.size(); ++i ){
+            Figures f = rows.get( i );
+            w.write( (i == 0 ? "\n" : ",\n") +
+                "    {\"phase\": \"" + f.phase + "\", \"count\": " + f.count +
+                ", \"wallNanos\": " + f.wallNanos + ", \"maxWallNanos\": " + f.maxWallNanos +
+                ", \"allocatedBytes\": " + f.allocatedBytes + ", \"nodesCreated\": " + f.nodesCreated +
+                ", \"nodesRenamed\": " + f.nodesRenamed + ", \"nodesRemoved\": " + f.nodesRemoved + "}" );
+        }
+        w.write( "\n  ]\n}\n" );
+    }
+}
@@ -0,0 +1,126 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** The steps needed to translate a document from its schema version to a
+ * target version.
+ *
+ * Steps which can be streamed are applied while parsing (see
+ * StreamingTranslator). Of the remaining steps, those which change nothing
+ * are skipped; only the others need to be applied to the DOM. The schema
+ * version and location attributes of the root element are then set once,
+ * for the final version.
+ *
+ * This class only depends on the JDK. */
+public final class TranslationPlan {
+    /** Steps which change nothing, by the version translated from (see the
+     * comments on these steps in TranslatorJava). */
+    private static final int[] NO_OP_STEPS = { 0, 2, 6, 8, 9, 14, 21, 26 };
+
+    /** True if the step from fromVersion to fromVersion+1 changes nothing. */
+    public static boolean isNoOp( int fromVersion ){
+        for( int v : NO_OP_STEPS ){
+            if( v == fromVersion ) return true;
+        }
+        return false;
+    }
+
+    private final int sourceVersion;
+    private final int streamedVersion;
+    private final int targetVersion;
+    private final int[] steps;
+
+    private TranslationPlan( int sourceVersion, int streamedVersion, int targetVersion ){
+        this.sourceVersion = sourceVersion;
+        this.streamedVersion = streamedVersion;
+        this.targetVersion = Math.max( streamedVersion, targetVersion );
+        List<Integer> list = new ArrayList<Integer>();
+        for( int v = streamedVersion; v < targetVersion; ++v ){
+            if( !isNoOp( v ) ) list.add( v );
+        }
+        steps = new int[ list.size() ];
+        for( int i = 0; i < steps.length; ++i ) steps[ i ] = list.get( i );
+    }
+
+    /** Plan for a document read with StreamingTranslator.parse. */
+    public static TranslationPlan create( int sourceVersion, int targetVersion ){
+        int version = sourceVersion;
+        while( version < targetVersion && StreamingTranslator.isStreamable( version + 1 ) ) ++version;
+        return new TranslationPlan( sourceVersion, version, targetVersion );
+    }
+
+    /** Plan for a document at sourceVersion of which the steps up to
+     * streamedVersion have already been applied. */
+    public static TranslationPlan create( int sourceVersion, int streamedVersion, int targetVersion ){
+        return new TranslationPlan( sourceVersion, streamedVersion, targetVersion );
+    }
+
+    public int getSourceVersion(){
+        return sourceVersion;
+    }
+
+    /** Version reached by streaming. */
+    public int getStreamedVersion(){
+        return streamedVersion;
+    }
+
+    /** Version of the result: the target version, or the source version if
+     * that is later. */
+    public int getTargetVersion(){
+        return targetVersion;
+    }
+
+    /** Steps to apply to the DOM, in order, as the versions translated
+     * from. */
+    public int[] getSteps(){
+        return steps.clone();
+    }
+
+    /** One-line description, e.g. "8 -> 32; streamed: translate8To9,
+     * translate9To10; run: translate10To11, ...; skipped: translate14To15,
+     * ...". */
+    public String describe(){
+        StringBuilder s = new StringBuilder();
+        s.append( sourceVersion ).append( " -> " ).append( targetVersion );
+        if( targetVersion == sourceVersion ){
+            return s.append( "; nothing to do" ).toString();
+        }
+        StringBuilder skipped = new StringBuilder();
+        for( int v = streamedVersion; v < targetVersion; ++v ){
+            if( isNoOp( v ) ) appendStep( skipped, v );
+        }
+        StringBuilder streamed = new StringBuilder();
+        for( int v = sourceVersion; v < streamedVersion; ++v ) appendStep( streamed, v );
+        StringBuilder run = new StringBuilder();
+        for( int v : steps ) appendStep( run, v );
+        if( streamed.length() > 0 ) s.append( "; streamed: " ).append( streamed );
+        if( run.length() > 0 ) s.append( "; run: " ).append( run );
+        if( skipped.length() > 0 ) s.append( "; skipped: " ).append( skipped );
+        return s.toString();
+    }
+
+    private static void appendStep( StringBuilder s, int fromVersion ){
+        if( s.length() > 0 ) s.append( ", " );
+        s.append( Diagnostics.stepName( fromVersion ) );
+    }
+}
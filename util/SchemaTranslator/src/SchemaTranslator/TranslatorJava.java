@@ -33,13 +33,248 @@ public class TranslatorJava extends TranslatorKotlin{
         super( inputSource, options );
     }
 
+    /** Mechanical parts of translation steps, applied before the code of
+     * each step (see translateAndValidate). */
+    private static final RewriteRules rules = new RewriteRules()
+        .step(29)
+            .replaceValue("monitoring/SurveyOptions/option@name", "Vector_EIR_Input", "inputEIR")
+            .replaceValue("monitoring/SurveyOptions/option@name", "Vector_EIR_Simulated", "simulatedEIR")
+            .renameAttribute("entomology@annualEIR", "scaledAnnualEIR")
+            .attributeToElement("entomology/vector/anopheles/mosq@mosqRestDuration")
+            .attributeToElement("entomology/vector/anopheles/mosq@extrinsicIncubationPeriod")
+            .attributeToElement("entomology/vector/anopheles/mosq@mosqLaidEggsSameDayProportion")
+            .attributeToElement("entomology/vector/anopheles/mosq@mosqSeekingDuration")
+            .attributeToElement("entomology/vector/anopheles/mosq@mosqSurvivalFeedingCycleProbability")
+            .appendElement("entomology/vector/anopheles/mosq", "availabilityVariance", "value", "0")
+            .attributeToBetaMean("entomology/vector/anopheles/mosq@mosqProbBiting")
+            .attributeToBetaMean("entomology/vector/anopheles/mosq@mosqProbFindRestSite")
+            .attributeToBetaMean("entomology/vector/anopheles/mosq@mosqProbResting")
+            .attributeToElement("entomology/vector/anopheles/mosq@mosqProbOvipositing")
+            .attributeToElement("entomology/vector/anopheles/mosq@mosqHumanBloodIndex")
+            .attributeToElement("entomology/vector/anopheles/nonHumanHosts@mosqRelativeEntoAvailability")
+            .attributeToElement("entomology/vector/anopheles/nonHumanHosts@mosqProbBiting")
+            .attributeToElement("entomology/vector/anopheles/nonHumanHosts@mosqProbFindRestSite")
+            .attributeToElement("entomology/vector/anopheles/nonHumanHosts@mosqProbResting")
+            .renameElement("interventions/changeHS/timed", "timedDeployment")
+            .renameElement("interventions/changeEIR/timed", "timedDeployment")
+            .renameElement("interventions/insertR_0Case/timed", "timedDeployment")
+            .renameElement("interventions/uninfectVectors/timed", "timedDeployment")
+        .step(31)
+            .replaceValue("monitoring/SurveyOptions/option@name", "nMassVA", "nMassGVI");
+
+    @Override
+    protected RewriteRules rewriteRules(){
+        return rules;
+    }
+
+    /** A step of this translator; a non-generic type, so that an array of
+     * steps needs no unchecked conversion. */
+    private interface Step extends TranslationStep<TranslatorJava> {}
+
+    /** Translation steps, indexed by the version translated from. Built once
+     * per JVM; see translateStep. */
+    private static final Step[] steps = new Step[]{
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate0To1();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate1To2();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate2To3();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate3To4();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate4To5();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate5To6();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate6To7();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate7To8();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate8To9();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate9To10();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate10To11();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate11To12();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate12To13();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate13To14();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate14To15();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate15To16();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate16To17();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate17To18();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate18To19();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate19To20();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate20To21();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate21To22();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate22To23();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate23To24();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate24To25();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate25To26();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate26To27();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate27To28();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate28To29();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate29To30();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                return t.translate30To31();
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate31To32();
+                return true;
+            }
+        },
+        new Step(){
+            public boolean translate( TranslatorJava t ) throws Exception {
+                t.translate32To33();
+                return true;
+            }
+        }
+    };
+
+    protected boolean translateStep( int fromVersion ){
+        if( fromVersion < 0 || fromVersion >= steps.length ){
+            throwUnchecked( new Exception( "No translation from version " + fromVersion + " to " + (fromVersion + 1) ) );
+            return false;
+        }
+        try{
+            return steps[ fromVersion ].translate( this );
+        }catch( Exception e ){
+            throwUnchecked( e );
+            return false;
+        }
+    }
+
     // Version 0 refers to before schema versioning was started.
     // Exactly what version 1 is has been forgotten; it's merged into 2.
-    public Boolean translate0To1() {
+    public boolean translate0To1() {
         return true;
     }
 
-    public Boolean translate1To2() throws Exception {
+    public boolean translate1To2() throws Exception {
         getScenarioElement().setAttribute("xmlns:xsi",
                                      "http://www.w3.org/2001/XMLSchema-instance");
         // Done by translate() method
@@ -51,51 +286,47 @@ public class TranslatorJava extends TranslatorKotlin{
             getScenarioElement().setAttribute("assimMode", "0");
         Element elt = getChildElementOpt(getScenarioElement(), "entoData");
         if (elt != null && elt.hasAttribute("firstDay")) {
-            System.out.println("Warning: Removed firstDay attribute");
+            Diagnostics.warning("firstDay-removed", "Removed firstDay attribute");
             elt.removeAttribute("firstDay");
         }
         //FIXME: may occur more than once
-        elt = (Element) getScenarioElement().getElementsByTagName("changeEIR").item(
-                  0);
+        elt = findElement("changeEIR");
         if (elt != null && elt.hasAttribute("firstDay")) {
-            System.out.println("Warning: Removed firstDay attribute");
+            Diagnostics.warning("firstDay-removed", "Removed firstDay attribute");
             elt.removeAttribute("firstDay");
         }
-        elt = (Element) getScenarioElement().getElementsByTagName("parameters")
-              .item(0);
+        elt = findElement("parameters");
         if (elt != null && elt.hasAttribute("useIseed"))
             elt.removeAttribute("useIseed");
 
-        NodeList sourcesElements = getScenarioElement()
-                                   .getElementsByTagName("sources");
-        while ( sourcesElements.getLength() > 0 ) {
-            Element sourcesElement = (Element) sourcesElements.item(0); // always use index 0 because items are removed
+        NodeList sourcesElements = findElements("sources");
+        for (int index = 0; index < sourcesElements.getLength(); index++) {
+            Element sourcesElement = (Element) sourcesElements.item(index);
             Element parent = (Element) sourcesElement.getParentNode();
-            parent.removeChild(sourcesElement); // this removes an item from sourcesElements
+            parent.removeChild(sourcesElement);
             parent.setNodeValue("");
         }
 
-        NodeList itemsElements = getScenarioElement().getElementsByTagName("item");
+        NodeList itemsElements = findElements("item");
         for (int index = 0; index < itemsElements.getLength(); index++) {
             Element itemsElement = (Element) itemsElements.item(index);
             itemsElement.setTextContent("");
         }
-        Element paramElement = ((Element) getScenarioElement().getElementsByTagName(
-                                    "parameters").item(0));
+        Element paramElement = findElement("parameters");
         if (paramElement != null) {
             int nspore = Integer.parseInt(paramElement.getAttribute("nspore"));
             paramElement.setAttribute("eipDuration", Integer
                                       .toString(nspore * 5));
             paramElement.removeAttribute("nspore");
         }
-        NodeList mdaElements = getScenarioElement().getElementsByTagName("MDA");
+        NodeList mdaElements = findElements("MDA");
         for (int index = 0; index < mdaElements.getLength(); index++) {
             Element el = (Element) mdaElements.item(index);
             el.setAttribute("minAge", "0");
             el.setAttribute("maxAge", "99");
             el.setAttribute("coverage", "1");
         }
-        NodeList allElements = getScenarioElement().getElementsByTagName("*");
+        NodeList allElements = findElements("*");
         for (int index = 0; index < allElements.getLength(); index++) {
             Element el = (Element) allElements.item(index);
             if (el.hasAttribute("best")) {
@@ -107,7 +338,7 @@ public class TranslatorJava extends TranslatorKotlin{
         return true;
     }
 
-    public Boolean translate2To3() {
+    public boolean translate2To3() {
         return true;
     }
 
@@ -187,7 +418,7 @@ public class TranslatorJava extends TranslatorKotlin{
     }
 
     // modelVersion flags 1<<2, 1<<4 or 1<<5 have changed
-    public Boolean translate4To5() {
+    public boolean translate4To5() {
         int ver = Integer
                   .parseInt(getScenarioElement().getAttribute("modelVersion"));
         if ((ver & 0x68) != 0) {// modelVersion with flags 1<<2, 1<<4 or 1<<5
@@ -196,33 +427,28 @@ public class TranslatorJava extends TranslatorKotlin{
             } else if ((ver & 0x68) == (1 << 5)) {
                 ver = (ver ^ (1 << 5)) /* remove 1<<5 flag */
                       & (1 << 4); /* and add 1<<4 flag */
-                System.err
-                .println("Warning: Scenario uses LOGNORMAL_MASS_ACTION_PLUS_PRE_IMM which has had a bug fixed!");
+                Diagnostics.warning("pre-imm-bug-fixed", "Scenario uses LOGNORMAL_MASS_ACTION_PLUS_PRE_IMM which has had a bug fixed!");
             } else {
-                System.err.println("Error: Scenario had a combination of InfectionIncidenceModel flags - this was invalid!");
+                Diagnostics.error("invalid-model-flags", "Scenario had a combination of InfectionIncidenceModel flags - this was invalid!");
                 return false;
             }
         }
         return true;
     }
 
-    public Boolean translate5To6() throws Exception {
+    public boolean translate5To6() throws Exception {
         int ver = Integer
                   .parseInt(getScenarioElement().getAttribute("modelVersion"));
-        Element cMs = (Element) getScenarioElement().getElementsByTagName(
-                          "caseManagements").item(0);
+        Element cMs = findElement("caseManagements");
         // wuID is added by add_work.cpp
         getScenarioElement().removeAttribute("wuID");
         if ((ver & 8192) != 0) { // ClinicalEventScheduler (new case
             // management)
-            if (getScenarioElement().getElementsByTagName("healthSystem")
-                    .getLength() > 0)
-                System.err
-                .println("Warning: healthSystem element present but not used");
+            if (findElement("healthSystem") != null)
+                Diagnostics.warning("unused-healthSystem", "healthSystem element present but not used");
         } else {
             if (cMs != null)
-                System.err
-                .println("Warning: caseManagement element present but not used (updating anyway)");
+                Diagnostics.warning("unused-caseManagement", "caseManagement element present but not used (updating anyway)");
         }
         if (cMs == null)
             return true; // element may not exist, in which case there's
@@ -233,9 +459,9 @@ public class TranslatorJava extends TranslatorKotlin{
             Element cM = (Element) cMList.item(i);
             cM.removeAttribute("minAgeYrs");
             Element nmfNP = getChildElement(cM, "nmf");
-            getScenarioDocument().renameNode(nmfNP, null, "nmfNP");
+            renameElement(nmfNP, "nmfNP");
             Element nmfP = (Element) nmfNP.cloneNode(true);
-            getScenarioDocument().renameNode(nmfP, null, "nmfP");
+            renameElement(nmfP, "nmfP");
             cM.insertBefore(nmfP, nmfNP);
         }
         return true;
@@ -243,7 +469,7 @@ public class TranslatorJava extends TranslatorKotlin{
 
     // Version 7 added elements for ITN and IRS intervention descriptions.
     // Nothing old needs to be changed.
-    public Boolean translate6To7() {
+    public boolean translate6To7() {
         return true;
     }
 
@@ -257,8 +483,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element mosq = getChildElement(anoph, "mosq");
             // This was required, so this if should always be true:
             if (mosq.getAttribute("emergenceRateFilename") != null) {
-                System.err
-                        .println("Warning: emergence rate data is now stored in the scenario document. Update by hand or run with \"openMalaria --enableERC\"");
+                Diagnostics.warning("emergenceRateFilename-removed", "emergence rate data is now stored in the scenario document. Update by hand or run with \"openMalaria --enableERC\"");
                 mosq.removeAttribute("emergenceRateFilename");
             }
         }
@@ -266,13 +491,13 @@ public class TranslatorJava extends TranslatorKotlin{
 
     // This changed some stuff to do with non-human hosts that wasn't used
     // before and added a VectorAvailability intervention.
-    public Boolean translate8To9() {
+    public boolean translate8To9() {
         return true;
     }
 
     // Version 10 introduced PKPD description parameters. No changes to
     // existing elements.
-    public Boolean translate9To10() {
+    public boolean translate9To10() {
         return true;
     }
 
@@ -294,19 +519,16 @@ public class TranslatorJava extends TranslatorKotlin{
                 anoph.setAttribute("propInfected", "0.078");
                 anoph.setAttribute("propInfectious", "0.021");
             }
-            System.err
-                    .println("New attributes propInfected and propInfectious created with default values - please correct (for each anopheles section)!");
+            Diagnostics.warning("default-propInfected", "New attributes propInfected and propInfectious created with default values - please correct (for each anopheles section)!");
         }
     }
 
     // Version 12 removed the simulationDuration attribute and changed the
     // event-scheduler data (no real scenarios yet so this is not auto-updated).
-    public Boolean translate11To12() {
-        Element cms = (Element) getScenarioElement().getElementsByTagName(
-                          "caseManagements").item(0);
+    public boolean translate11To12() {
+        Element cms = findElement("caseManagements");
         if (cms != null) {
-            System.err
-            .println("Please replace the caseManagements element with an EventScheduler element (auto-update not implemented)");
+            Diagnostics.error("caseManagements-unsupported", "Please replace the caseManagements element with an EventScheduler element (auto-update not implemented)");
             return false;
         }
         getScenarioElement().removeAttribute("simulationDuration");
@@ -318,7 +540,7 @@ public class TranslatorJava extends TranslatorKotlin{
     // element.
     // Also, the GARKI_DENSITY_BIAS model option was introduced.
     // As such, old scenarios are definitely incompatible with the new code.
-    public Boolean translate12To13() {
+    public boolean translate12To13() {
         final int NUM_VERSIONS = 23;
         String[] num2String = new String[NUM_VERSIONS];
         num2String[1] = "PENALISATION_EPISODES";
@@ -366,8 +588,7 @@ public class TranslatorJava extends TranslatorKotlin{
                 opt.setAttribute("value", "false");
                 modelOptions.appendChild(opt);
             } else {
-                System.err
-                .println("scenario doesn't include MAX_DENS_CORRECTION: please specify --maxDensCorrection BOOL");
+                Diagnostics.error("maxDensCorrection-required", "scenario doesn't include MAX_DENS_CORRECTION: please specify --maxDensCorrection BOOL");
                 return false;
             }
         }
@@ -445,26 +666,24 @@ public class TranslatorJava extends TranslatorKotlin{
     // Version 14 changed the drugDescription element. This was as-yet unused
     // and there's no direct
     // translation from the old version.
-    public Boolean translate13To14() {
-        Node cms = getScenarioElement().getElementsByTagName("drugDescription").item(0);
+    public boolean translate13To14() {
+        Node cms = findElement("drugDescription");
         if (cms != null) {
-            System.err
-            .println("Warning: drugDescription element has changed; please rewrite manually.");
+            Diagnostics.warning("drugDescription-changed", "drugDescription element has changed; please rewrite manually.");
         }
         return true;
     }
 
     // Version 15 allowed MDA interventions to include drug information (no
     // changes to existing scenarios)
-    public Boolean translate14To15() {
+    public boolean translate14To15() {
         return true;
     }
 
     public void translate15To16() {
         Element model = getScenarioDocument().createElement("model");
         Element clinical = getScenarioDocument().createElement("clinical");
-        Element modelOptions = (Element) getScenarioElement().getElementsByTagName(
-                "ModelOptions").item(0);
+        Element modelOptions = findElement("ModelOptions");
         Element parameters = getChildElement(getScenarioElement(), "parameters");
 
         model.appendChild(modelOptions);
@@ -474,8 +693,7 @@ public class TranslatorJava extends TranslatorKotlin{
         getScenarioElement().appendChild(model);
 
         Element healthSystemOld = getChildElementOpt(getScenarioElement(), "healthSystem");
-        Element eventScheduler = (Element) getScenarioElement()
-                .getElementsByTagName("EventScheduler").item(0);
+        Element eventScheduler = findElement("EventScheduler");
         Attr healthSystemMemory;
 
         Element healthSystemNew = getScenarioDocument()
@@ -507,8 +725,7 @@ public class TranslatorJava extends TranslatorKotlin{
                     .getAttributeNode("healthSystemMemory");
             healthSystemOld.removeAttribute("healthSystemMemory");
             // healthSystemOld.removeAttribute("name");
-            getScenarioDocument().renameNode(healthSystemOld, null,
-                    "ImmediateOutcomes");
+            renameElement(healthSystemOld, "ImmediateOutcomes");
             Element CFR = getChildElement(healthSystemOld, "CFR");
 
             healthSystemNew.appendChild(healthSystemOld);
@@ -516,16 +733,14 @@ public class TranslatorJava extends TranslatorKotlin{
         }
 
         // FIXME: could be more than one intervention with changeHS
-        Element Intervention = (Element) getScenarioElement().getElementsByTagName(
-                "intervention").item(0);
+        Element Intervention = findElement("intervention");
         if (Intervention != null) {
             Element changeHS = getChildElementOpt(Intervention, "changeHS");
 
             if (changeHS != null) {
                 changeHS.removeAttribute("healthSystemMemory");
 
-                getScenarioDocument()
-                        .renameNode(changeHS, null, "ImmediateOutcomes");
+                renameElement(changeHS, "ImmediateOutcomes");
 
                 Element changeHSNew = getScenarioDocument()
                         .createElement("changeHS");
@@ -542,11 +757,10 @@ public class TranslatorJava extends TranslatorKotlin{
         clinical.setAttributeNode(healthSystemMemory);
     }
 
-    public Boolean translate16To17() {
+    public boolean translate16To17() {
         double Standard_NHH_NUMBER = 1.0;
         
-        Element vector = (Element) getScenarioElement().getElementsByTagName(
-                             "vector").item(0);
+        Element vector = findElement("vector");
 
         if (vector != null) {
             NodeList anopheles = vector.getElementsByTagName("anopheles");
@@ -588,9 +802,7 @@ public class TranslatorJava extends TranslatorKotlin{
                     setMosqsNewAttributes(2, mosq, nonHumanHosts);
 
                 else {
-                    System.err
-                    .println("There are no standards values for this kind of mosquito. Please edit those values per hand. ");
-                    System.err.println("This scenario will not be updated.");
+                    Diagnostics.error("unknown-mosquito", "There are no standards values for this kind of mosquito. Please edit those values per hand. This scenario will not be updated.");
                     return false;
                 }
             }
@@ -598,7 +810,7 @@ public class TranslatorJava extends TranslatorKotlin{
         return true;
     }
 
-    public Boolean translate17To18() {
+    public boolean translate17To18() {
         Attr popSize = getScenarioElement().getAttributeNode("popSize");
         Attr maxAgeYrs = getScenarioElement().getAttributeNode("maximumAgeYrs");
         Attr mode = getScenarioElement().getAttributeNode("mode");
@@ -678,7 +890,7 @@ public class TranslatorJava extends TranslatorKotlin{
             if ( ctsMon.getAttribute("period").equals("5") )
                 ctsMon.setAttribute("period", "1");
             else
-                System.err.println("Warning: monitoring->continuous->period changed unit from timesteps to days. Please update accordingly.");
+                Diagnostics.warning("continuous-period-unit", "monitoring->continuous->period changed unit from timesteps to days. Please update accordingly.");
         }
 
         Element SurveyOptions = getChildElement(monitoring, "SurveyOptions");
@@ -699,8 +911,7 @@ public class TranslatorJava extends TranslatorKotlin{
                 Element mosq = getChildElement(anoph, "mosq");
                 mosq.setAttribute("minInfectedThreshold", "0.01");
             }
-            System.err
-                    .println("New attribute minInfectedThreshold created with default 0.01 mosquito - please correct (for each anopheles section)!");
+            Diagnostics.warning("default-minInfectedThreshold", "New attribute minInfectedThreshold created with default 0.01 mosquito - please correct (for each anopheles section)!");
         }
 
         // IPTI_SP_MODEL option (try to work out whether it should be used)
@@ -735,7 +946,7 @@ public class TranslatorJava extends TranslatorKotlin{
                     // Don't need IPTI model; either it was added on purpose
                     // (to get results comparable to when using IPTI interventions)
                     // or it was a mistake. Require user to decide which.
-                    System.err.println("Warning: iptiDescription without IPT interventions");
+                    Diagnostics.warning("ipti-without-interventions", "iptiDescription without IPT interventions");
                     if (getOptions().getIptiSpOption() == IptiSpBehaviour.ASSUME_INTENDED) {
                         iptiOption.setAttribute("value","true");
                         modelOptions.appendChild(iptiOption);
@@ -797,7 +1008,7 @@ public class TranslatorJava extends TranslatorKotlin{
                 }
                 hsio.removeChild( oldPSeq );
             } else {    // using EventScheduler model which didn't previously have sequelae data
-                System.err.println("Warning: pSequelaeInpatient element with default data added");
+                Diagnostics.warning("default-pSequelaeInpatient", "pSequelaeInpatient element with default data added");
                 // I guess we can do this, since, as far as I am aware, this same data-set
                 // has always been used, apart from where zero sequelae is desired.
                 pSeqGroupValue = new double[] { 0.0132, 0.005 };
@@ -845,7 +1056,7 @@ public class TranslatorJava extends TranslatorKotlin{
 
     /* Schema 22 adds some optional features to facilitate EIR entry.
      No translation required. */
-    public Boolean translate21To22() {
+    public boolean translate21To22() {
         return true;
     }
 
@@ -880,7 +1091,7 @@ public class TranslatorJava extends TranslatorKotlin{
         getScenarioElement().removeAttribute("assimMode");
         //Warn about change in EIR units, but don't update automatically (intended unit unknown):
         if ( getChildNodes(getChildElement(getScenarioElement(), "entoData"), "vector").size() > 0 ) {
-            System.err.println("Warning: units of EIR for vector model changed from inoculations per averaged person to inoculations per average adult.");
+            Diagnostics.warning("vector-EIR-unit", "units of EIR for vector model changed from inoculations per averaged person to inoculations per average adult.");
         }
 
         //Add human element into scenario:
@@ -933,7 +1144,7 @@ public class TranslatorJava extends TranslatorKotlin{
      * MDADescription changed from just a list of drug doses to a full decision tree.
      */
     public void translate24To25() {
-        NodeList vaccs = getScenarioElement().getElementsByTagName ("vaccineDescription");
+        NodeList vaccs = findElements("vaccineDescription");
         for (int i = 0; i < vaccs.getLength(); i++) {
             Element vd = (Element)vaccs.item(i);
             int t = Integer.parseInt(vd.getAttribute("vaccineType"));
@@ -960,12 +1171,12 @@ public class TranslatorJava extends TranslatorKotlin{
             vd.replaceChild(decay,hly);
         }
 
-        WeibullDecayedValueToDecayFunction(getScenarioElement().getElementsByTagName ("preprandialKillingEffect"));
-        WeibullDecayedValueToDecayFunction(getScenarioElement().getElementsByTagName ("postprandialKillingEffect"));
-        WeibullDecayedValueToDecayFunction(getScenarioElement().getElementsByTagName ("killingEffect"));
-        WeibullDecayedValueToDecayFunction(getScenarioElement().getElementsByTagName ("deterrency"));
+        WeibullDecayedValueToDecayFunction(findElements("preprandialKillingEffect"));
+        WeibullDecayedValueToDecayFunction(findElements("postprandialKillingEffect"));
+        WeibullDecayedValueToDecayFunction(findElements("killingEffect"));
+        WeibullDecayedValueToDecayFunction(findElements("deterrency"));
 
-        Element MDADesc = (Element) getScenarioElement().getElementsByTagName("MDADescription").item(0);
+        Element MDADesc = findElement("MDADescription");
         if ( MDADesc != null ) {
             Element schedule = getChildElement(MDADesc,"schedule");
 
@@ -997,7 +1208,7 @@ public class TranslatorJava extends TranslatorKotlin{
             treat1.appendChild(schedule);
         }
 
-        System.out.println("translated to 25");
+        Diagnostics.note("translated", "translated to 25");
     }
     void WeibullDecayedValueToDecayFunction (NodeList nodes) {
         for (int i = 0; i < nodes.getLength(); i++) {
@@ -1023,9 +1234,9 @@ public class TranslatorJava extends TranslatorKotlin{
      * Never previously used, so manual update.
      *
      * pImmediateUC replaced by dailyPrImmUCTS. */
-    public Boolean translate25To26() {
+    public boolean translate25To26() {
         try {
-            NodeList clinOutcomes = getScenarioElement().getElementsByTagName("ClinicalOutcomes");
+            NodeList clinOutcomes = findElements("ClinicalOutcomes");
             for (int i=0; i<clinOutcomes.getLength(); i++) {
                 Element ci = (Element) clinOutcomes.item(i);
                 Element immUCElt = getChildElement(ci, "pImmediateUC");
@@ -1037,7 +1248,7 @@ public class TranslatorJava extends TranslatorKotlin{
                     ci.appendChild(dailyP);
                 } else {
                     assert pImmUC < 1.0 && pImmUC > 0;
-                    System.err.println("pImmediateUC element replaced with dailyPrImmUCTS: not an exact equivalent");
+                    Diagnostics.warning("pImmediateUC-approximated", "pImmediateUC element replaced with dailyPrImmUCTS: not an exact equivalent");
                     double invP = 1-pImmUC;
                     double[] pArr = { pImmUC, invP*pImmUC, invP*invP*pImmUC };
                     double total = pArr[0]+pArr[1]+pArr[2];
@@ -1059,7 +1270,7 @@ public class TranslatorJava extends TranslatorKotlin{
             }
             return true;
         } catch (DocumentException e) {
-            System.err.println("Error: "+e.getMessage());
+            Diagnostics.error("step-failed", e.getMessage());
             return false;
         }
     }
@@ -1090,16 +1301,16 @@ public class TranslatorJava extends TranslatorKotlin{
                         }
                     } else {
                         if (!desc.function.equals(effect.getAttribute("function"))) {
-                            System.err.println(descriptionElt+": differing decay functions no longer supported. function: "+desc.function+" and "+effect.getAttribute("function"));
+                            Diagnostics.error("differing-decay", descriptionElt+": differing decay functions no longer supported. function: "+desc.function+" and "+effect.getAttribute("function"));
                             return false;
                         }
                         if (Double.parseDouble(desc.L) != Double.parseDouble(effect.getAttribute("L"))) {
-                            System.err.println(descriptionElt+": differing decay functions no longer supported. L: "+desc.L+" and "+effect.getAttribute("L"));
+                            Diagnostics.error("differing-decay", descriptionElt+": differing decay functions no longer supported. L: "+desc.L+" and "+effect.getAttribute("L"));
                             return false;
                         }
                         String k = effect.hasAttribute("k")?effect.getAttribute("k"):"1";
                         if (Double.parseDouble(desc.k) != Double.parseDouble(k)) {
-                            System.err.println(descriptionElt+": differing decay functions no longer supported. k: "+desc.k+" and "+k);
+                            Diagnostics.error("differing-decay", descriptionElt+": differing decay functions no longer supported. k: "+desc.k+" and "+k);
                             return false;
                         }
                     }
@@ -1126,31 +1337,31 @@ public class TranslatorJava extends TranslatorKotlin{
     }
 
     /* Nothing needs updating. */
-    public Boolean translate26To27() {
+    public boolean translate26To27() {
         return true;
     }
 
     /* Several name changes.
      * A major change to the interventions element.
      */
-    public Boolean translate27To28() {
+    public boolean translate27To28() {
         try {
             // Name changes:
             Element ento = getChildElement(getScenarioElement(),"entoData");
-            getScenarioDocument().renameNode(ento,null,"entomology");
+            renameElement(ento, "entomology");
             Element vec = getChildElementOpt(ento,"vector");
             if ( vec!=null ) {
                 for (Node n:getChildNodes(vec,"anopheles")) {
                     for (Node m:getChildNodes( n,"eir")) {
-                        getScenarioDocument().renameNode(m,null,"EIR");
+                        renameElement(m, "EIR");
                     }
                     for (Node m:getChildNodes( n,"monthlyEir")) {
-                        getScenarioDocument().renameNode(m,null,"monthlyEIR");
+                        renameElement(m, "monthlyEIR");
                     }
                 }
             }
             for (Node n : getChildNodes(getScenarioElement(),"drugDescription")) {
-                getScenarioDocument().renameNode(n,null,"pharmacology");
+                renameElement(n, "pharmacology");
             }
 
             // Interventions elt changes:
@@ -1166,27 +1377,27 @@ public class TranslatorJava extends TranslatorKotlin{
                 if (descName.equals("iptiDescription")) {
                     newElt = getOrCreateSubElt(interventions,"IPT");
                     newElt.appendChild(oldElt);
-                    getScenarioDocument().renameNode(oldElt,null,"description");
+                    renameElement(oldElt, "description");
                 } else if (descName.equals("vaccineDescription")) {
                     newElt = getOrCreateSubElt(interventions,"vaccine");
                     newElt.appendChild(oldElt);
-                    getScenarioDocument().renameNode(oldElt,null,"description");
+                    renameElement(oldElt, "description");
                 } else if (descName.equals("MDADescription")) {
                     newElt = getOrCreateSubElt(interventions,"MDA");
                     newElt.appendChild(oldElt);
-                    getScenarioDocument().renameNode(oldElt,null,"description");
+                    renameElement(oldElt, "description");
                 } else if (descName.equals("ITNDecay")) {
                     newElt = getOrCreateSubElt(interventions,"ITN");
                     newElt.appendChild(oldElt);
-                    getScenarioDocument().renameNode(oldElt,null,"decay");
+                    renameElement(oldElt, "decay");
                 } else if (descName.equals("IRSDecay")) {
                     newElt = getOrCreateSubElt(interventions,"IRS");
                     newElt.appendChild(oldElt);
-                    getScenarioDocument().renameNode(oldElt,null,"decay");
+                    renameElement(oldElt, "decay");
                 } else if (descName.equals("VADecay")) {
                     newElt = getOrCreateSubElt(interventions,"vectorDeterrent");
                     newElt.appendChild(oldElt);
-                    getScenarioDocument().renameNode(oldElt,null,"decay");
+                    renameElement(oldElt, "decay");
                 } else if (descName.equals("anopheles")) {
                     NodeList aDescs = oldElt.getChildNodes();
                     String mosqName = oldElt.getAttribute("mosquito");
@@ -1199,7 +1410,7 @@ public class TranslatorJava extends TranslatorKotlin{
                         if (aDescName.equals("ITNDescription")) {
                             newElt = getOrCreateSubElt(interventions,"ITN");
                             newElt.appendChild(oldAElt);
-                            getScenarioDocument().renameNode(oldAElt,null,"anophelesParams");
+                            renameElement(oldAElt, "anophelesParams");
                             oldAElt.setAttribute("mosquito",mosqName);
                             if (!newElt.hasAttribute("name")) {
                                 newElt.setAttribute("name",oldAElt.getAttribute("name"));
@@ -1208,7 +1419,7 @@ public class TranslatorJava extends TranslatorKotlin{
                         } else if (aDescName.equals("IRSDescription")) {
                             newElt = getOrCreateSubElt(interventions,"IRS");
                             newElt.appendChild(oldAElt);
-                            getScenarioDocument().renameNode(oldAElt,null,"anophelesParams");
+                            renameElement(oldAElt, "anophelesParams");
                             oldAElt.setAttribute("mosquito",mosqName);
                             if (!newElt.hasAttribute("name")) {
                                 newElt.setAttribute("name",oldAElt.getAttribute("name"));
@@ -1217,19 +1428,19 @@ public class TranslatorJava extends TranslatorKotlin{
                         } else if (aDescName.equals("VADescription")) {
                             newElt = getOrCreateSubElt(interventions,"vectorDeterrent");
                             newElt.appendChild(oldAElt);
-                            getScenarioDocument().renameNode(oldAElt,null,"anophelesParams");
+                            renameElement(oldAElt, "anophelesParams");
                             oldAElt.setAttribute("mosquito",mosqName);
                             if (!newElt.hasAttribute("name")) {
                                 newElt.setAttribute("name",oldAElt.getAttribute("name"));
                             }
                             oldAElt.removeAttribute("name");
                         } else {
-                            System.err.println("Unexpected element interventions.descriptions.anopheles."+aDescName);
+                            Diagnostics.error("unexpected-element", "Unexpected element interventions.descriptions.anopheles."+aDescName);
                             return false;
                         }
                     }
                 } else {
-                    System.err.println("Unexpected element interventions.descriptions."+descName);
+                    Diagnostics.error("unexpected-element", "Unexpected element interventions.descriptions."+descName);
                     return false;
                 }
             }
@@ -1246,21 +1457,21 @@ public class TranslatorJava extends TranslatorKotlin{
                     if (contName.equals("ipti")) {
                         newElt = getOrCreateSubElt(interventions,"IPT");
                         newElt.appendChild(oldElt);
-                        getScenarioDocument().renameNode(oldElt,null,"continuous");
+                        renameElement(oldElt, "continuous");
                     } else if (contName.equals("vaccine")) {
                         newElt = getOrCreateSubElt(interventions,"vaccine");
                         newElt.appendChild(oldElt);
-                        getScenarioDocument().renameNode(oldElt,null,"continuous");
+                        renameElement(oldElt, "continuous");
                     } else if (contName.equals("cohort")) {
                         newElt = getOrCreateSubElt(interventions,"cohort");
                         newElt.appendChild(oldElt);
-                        getScenarioDocument().renameNode(oldElt,null,"continuous");
+                        renameElement(oldElt, "continuous");
                     } else if (contName.equals("ITN")) {
                         newElt = getOrCreateSubElt(interventions,"ITN");
                         newElt.appendChild(oldElt);
-                        getScenarioDocument().renameNode(oldElt,null,"continuous");
+                        renameElement(oldElt, "continuous");
                     } else {
-                        System.err.println("Unexpected element interventions.continuous."+contName);
+                        Diagnostics.error("unexpected-element", "Unexpected element interventions.continuous."+contName);
                         return false;
                     }
                 }
@@ -1284,69 +1495,69 @@ public class TranslatorJava extends TranslatorKotlin{
                         if (interv.equals("changeHS")) {
                             newElt = getOrCreateSubElt(interventions,"changeHS");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("changeEIR")) {
                             newElt = getOrCreateSubElt(interventions,"changeEIR");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("MDA")) {
                             newElt = getOrCreateSubElt(interventions,"MDA");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("vaccinate")) {
                             newElt = getOrCreateSubElt(interventions,"vaccine");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("ITN")) {
                             newElt = getOrCreateSubElt(interventions,"ITN");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("IRS")) {
                             newElt = getOrCreateSubElt(interventions,"IRS");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("VectorAvailability")) {
                             newElt = getOrCreateSubElt(interventions,"vectorDeterrent");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("ipti")) {
                             newElt = getOrCreateSubElt(interventions,"IPT");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("cohort")) {
                             newElt = getOrCreateSubElt(interventions,"cohort");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("uninfectVectors")) {
                             newElt = getOrCreateSubElt(interventions,"uninfectVectors");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("immuneSuppression")) {
                             newElt = getOrCreateSubElt(interventions,"immuneSuppression");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("insertR_0Case")) {
                             newElt = getOrCreateSubElt(interventions,"insertR_0Case");
                             newElt.appendChild(oldElt);
-                            getScenarioDocument().renameNode(oldElt,null,"timed");
+                            renameElement(oldElt, "timed");
                             oldElt.setAttribute("time",intervTime);
                         } else if (interv.equals("larviciding")) {
-                            System.err.println("larviciding intervention model has changed significantly; please remove and re-add");
+                            Diagnostics.error("larviciding-unsupported", "larviciding intervention model has changed significantly; please remove and re-add");
                             return false;
                         } else if (interv.equals("importedInfectionsPerThousandHosts")) {
                             if ( !givenIIWarning ) {
-                                System.err.println("Warning: doing an exact conversion from old imported infections representation to new. This is probably not what you want unless you need to replicate results.");
+                                Diagnostics.warning("importedInfections-exact", "doing an exact conversion from old imported infections representation to new. This is probably not what you want unless you need to replicate results.");
                                 givenIIWarning = true;
                             }
                             newElt = getOrCreateSubElt(interventions,"importedInfections");
@@ -1368,7 +1579,7 @@ public class TranslatorJava extends TranslatorKotlin{
                             IINext.setAttribute("time",Integer.toString(Integer.parseInt(intervTime)+1));
                             IINext.setAttribute("value","0");
                         } else {
-                            System.err.println("Unexpected element interventions.timed.intervention."+interv);
+                            Diagnostics.error("unexpected-element", "Unexpected element interventions.timed.intervention."+interv);
                             return false;
                         }
                     }
@@ -1377,7 +1588,7 @@ public class TranslatorJava extends TranslatorKotlin{
             }
             return true;
         } catch (DocumentException e) {
-            System.err.println("Error: "+e.getMessage());
+            Diagnostics.error("step-failed", e.getMessage());
             return false;
         }
     }
@@ -1397,7 +1608,7 @@ public class TranslatorJava extends TranslatorKotlin{
             if( getOptions().getITN29Translation() == ITN29ParameterTranslation.NONE ){
                 throwDocumentException("Error: ITN description changed. Pass argument --ITN-description to replace or ignore (see help)");
             }else if( getOptions().getITN29Translation() == ITN29ParameterTranslation.MANUAL ){
-                System.err.println("Warning: leaving ITN description unchanged as requested");
+                Diagnostics.warning("ITN-description-unchanged", "leaving ITN description unchanged as requested");
             }else{
                 assert getOptions().getITN29Translation() == ITN29ParameterTranslation.REPLACE;
 
@@ -1492,19 +1703,9 @@ public class TranslatorJava extends TranslatorKotlin{
      * timed elt of changeHS and changeEIR renamed to timedDeployment
      * new IRS model: choice of old or new parameters
      */
+    // Survey options, annualEIR, mosq and nonHumanHosts attributes and some
+    // timed elements are updated by rules (see rewriteRules).
     public void translate29To30() {
-        Element mon = getChildElement(getScenarioElement(), "monitoring");
-        Element survOpt = getChildElement(mon, "SurveyOptions");
-        List<Node> opts = getChildNodes(survOpt, "option");
-        for( Node optNode : opts ){
-            Element opt = (Element) optNode;
-            if( opt.getAttribute("name").equals("Vector_EIR_Input") ){
-                opt.setAttribute("name","inputEIR");
-            }else if( opt.getAttribute("name").equals("Vector_EIR_Simulated") ){
-                opt.setAttribute("name","simulatedEIR");
-            }
-        }
-
         Element ento = getChildElement(getScenarioElement(), "entomology");
         int mode = Integer.parseInt(ento.getAttribute("mode"));
         if(mode==2){
@@ -1513,10 +1714,6 @@ public class TranslatorJava extends TranslatorKotlin{
             assert mode==4;
             ento.setAttribute("mode","dynamic");
         }
-        if( ento.getAttributeNode("annualEIR") != null ){
-            ento.setAttribute("scaledAnnualEIR", ento.getAttribute("annualEIR") );
-            ento.removeAttribute("annualEIR");
-        }
 
         Element vector = getChildElementOpt(ento,"vector");
         if(vector != null){
@@ -1524,31 +1721,6 @@ public class TranslatorJava extends TranslatorKotlin{
             for( Node anophNode : anophs ){
                 Element anoph = (Element)anophNode;
                 assert anoph != null;
-                Element mosq = getChildElement(anoph,"mosq");
-                convertAttrToElement(mosq, "mosqRestDuration");
-                convertAttrToElement(mosq, "extrinsicIncubationPeriod");
-                convertAttrToElement(mosq, "mosqLaidEggsSameDayProportion");
-                convertAttrToElement(mosq, "mosqSeekingDuration");
-                convertAttrToElement(mosq, "mosqSurvivalFeedingCycleProbability");
-                Element elt = getScenarioDocument().createElement("availabilityVariance");
-                elt.setAttribute("value","0");
-                mosq.appendChild(elt);
-                convertAttrToBetaMeanElt(mosq, "mosqProbBiting");
-                convertAttrToBetaMeanElt(mosq, "mosqProbFindRestSite");
-                convertAttrToBetaMeanElt(mosq, "mosqProbResting");
-                convertAttrToElement(mosq, "mosqProbOvipositing");
-                convertAttrToElement(mosq, "mosqHumanBloodIndex");
-
-                List<Node> nhhs = getChildNodes(anoph,"nonHumanHosts");
-                for( Node n : nhhs ){
-                    Element nhh = (Element)n;
-                    assert n!=null;
-                    convertAttrToElement(nhh, "mosqRelativeEntoAvailability");
-                    convertAttrToElement(nhh, "mosqProbBiting");
-                    convertAttrToElement(nhh, "mosqProbFindRestSite");
-                    convertAttrToElement(nhh, "mosqProbResting");
-                }
-
                 Element seas = getScenarioDocument().createElement("seasonality");
                 seas.setAttribute("input","EIR");
                 anoph.insertBefore(seas, anoph.getFirstChild());
@@ -1612,24 +1784,12 @@ public class TranslatorJava extends TranslatorKotlin{
         }
 
         Element intervs = getChildElement(getScenarioElement(),"interventions");
-        Element interv = getChildElementOpt(intervs,"changeHS");
-        if(interv != null){
-            for( Node n : getChildNodes(interv,"timed") )
-                getScenarioDocument().renameNode( n, null, "timedDeployment" );
-        }
-
-        interv = getChildElementOpt(intervs,"changeEIR");
-        if(interv != null){
-            for( Node n : getChildNodes(interv,"timed") )
-                getScenarioDocument().renameNode( n, null, "timedDeployment" );
-        }
-
-        interv = getChildElementOpt(intervs,"MDA");
+        Element interv = getChildElementOpt(intervs,"MDA");
         if( interv != null && interv.getElementsByTagName("timed").getLength() > 0 ){
             Element list  = getScenarioDocument().createElement("timed");
             for( Node n : getChildNodes(interv, "timed") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1639,7 +1799,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("continuous");
             for( Node n : getChildNodes(interv, "continuous") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1647,7 +1807,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("timed");
             for( Node n : getChildNodes(interv, "timed") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1657,7 +1817,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("continuous");
             for( Node n : getChildNodes(interv, "continuous") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1665,7 +1825,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("timed");
             for( Node n : getChildNodes(interv, "timed") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1675,7 +1835,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("continuous");
             for( Node n : getChildNodes(interv, "continuous") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1683,7 +1843,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("timed");
             for( Node n : getChildNodes(interv, "timed") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1701,7 +1861,7 @@ public class TranslatorJava extends TranslatorKotlin{
                     preprandial.setAttribute("value","0");
                     Element postprandial = getChildElement(e, "killingEffect");
                     e.insertBefore(preprandial, postprandial);
-                    getScenarioDocument().renameNode(postprandial,null,"postprandialKillingEffect");
+                    renameElement(postprandial, "postprandialKillingEffect");
                     // move under "description":
                     desc.appendChild(n);
                 }
@@ -1712,7 +1872,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("timed");
             for( Node n : getChildNodes(interv, "timed") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1722,7 +1882,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("timed");
             for( Node n : getChildNodes(interv, "timed") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1732,7 +1892,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("continuous");
             for( Node n : getChildNodes(interv, "continuous") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1740,7 +1900,7 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("timed");
             for( Node n : getChildNodes(interv, "timed") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
@@ -1750,35 +1910,10 @@ public class TranslatorJava extends TranslatorKotlin{
             Element list  = getScenarioDocument().createElement("timed");
             for( Node n : getChildNodes(interv, "timed") ){
                 list.appendChild(n);
-                getScenarioDocument().renameNode(n,null,"deploy");
+                renameElement(n, "deploy");
             }
             interv.appendChild(list);
         }
-
-        interv = getChildElementOpt(intervs,"insertR_0Case");
-        if(interv != null){
-            for( Node n : getChildNodes(interv,"timed") )
-                getScenarioDocument().renameNode( n, null, "timedDeployment" );
-        }
-
-        interv = getChildElementOpt(intervs,"uninfectVectors");
-        if(interv != null){
-            for( Node n : getChildNodes(interv,"timed") )
-                getScenarioDocument().renameNode( n, null, "timedDeployment" );
-        }
-    }
-    void convertAttrToElement(Element parent, String name){
-        Element elt = getScenarioDocument().createElement(name);
-        elt.setAttribute("value",parent.getAttribute(name));
-        parent.removeAttribute(name);
-        parent.appendChild(elt);
-    }
-    void convertAttrToBetaMeanElt(Element parent, String name){
-        Element elt = getScenarioDocument().createElement(name);
-        elt.setAttribute("mean",parent.getAttribute(name));
-        elt.setAttribute("variance","0");
-        parent.removeAttribute(name);
-        parent.appendChild(elt);
     }
     
     /* Changes for Schema 31:
@@ -1786,7 +1921,7 @@ public class TranslatorJava extends TranslatorKotlin{
     * INNATE_MAX_DENS now defaults to true, but old scenarios have this explicitly set to false if not previously set to avoid changing results.
     * Larviciding -> vectorPop generic intervention
     */
-    public Boolean translate30To31() {
+    public boolean translate30To31() {
         try{
             Element model = getChildElement(getScenarioElement(), "model");
             Element modelOpts = getChildElement(model, "ModelOptions");
@@ -1829,11 +1964,11 @@ public class TranslatorJava extends TranslatorKotlin{
                     double durDbl = Double.parseDouble( durStr ) / getStepsPerYear();
                     decay.setAttribute( "L", Double.toString( durDbl ) );
                 }
-                getScenarioDocument().renameNode( larv, "", "intervention" );
+                renameElement( larv, "", "intervention" );
             }
             return true;
         } catch (DocumentException e) {
-            System.err.println("Error: "+e.getMessage());
+            Diagnostics.error("step-failed", e.getMessage());
             return false;
         }
     }
@@ -1848,6 +1983,11 @@ public class TranslatorJava extends TranslatorKotlin{
         return false;
     }
     
+    /** Values in time steps rescaled by oDTTranslation (schema version 18). */
+    private static final TimeRescaler ODT_TIMES = new TimeRescaler()
+        .timePoint("surveys/surveyTime")
+        .timePoint("intervention@time");
+
     /**
      * This function is used to translate the 5-day timestep fitting
      * scenarii to 1-day timestep fitting scenarii. Since we're using a fairly
@@ -1858,14 +1998,11 @@ public class TranslatorJava extends TranslatorKotlin{
      */
     @Override
     protected void oDTTranslation() {
-        Element surveys = (Element)getScenarioElement().getElementsByTagName("surveys").item(0);
-        NodeList surveystimes = surveys.getElementsByTagName("surveyTime");
-
-        for (int i=0;i<surveystimes.getLength();i++)
-        {
-            Element surveytime = (Element)surveystimes.item(i);
-            int surveyTime = Integer.parseInt(surveytime.getTextContent());
-            surveytime.setTextContent(String.valueOf(((surveyTime -1)*5)+1));
+        try{
+            ODT_TIMES.rescale(getScenarioElement(), 5, 1);
+        }catch( NumberFormatException e ){
+            throwDocumentException(e.getMessage());
+            return;
         }
 
         Element modelElement = getChildElement(getScenarioElement(), "model");
@@ -1898,22 +2035,12 @@ public class TranslatorJava extends TranslatorKotlin{
         esOption.setAttributeNode(valueES);
         modelOptions.appendChild(esOption);
 
-        Element clinical = (Element)getScenarioElement().getElementsByTagName("clinical").item(0);
+        Element clinical = findElement("clinical");
         Attr healthSystemMemory = clinical.getAttributeNode("healthSystemMemory");
+        // not rescaled (6 steps would be 30 days): 28 days is the intended memory
         healthSystemMemory.setValue(String.valueOf(28));
 
-        NodeList interventionList = getScenarioElement().getElementsByTagName("intervention");
-
-        for (int i=0;i<interventionList.getLength();i++)
-        {
-            Element intervention = (Element)interventionList.item(0);
-            Attr time = intervention.getAttributeNode("time");
-
-            if (time!=null)
-                time.setNodeValue(String.valueOf(((Integer.parseInt(time.getNodeValue())-1)*5)+1));
-        }
-
-        NodeList changeHSList = getScenarioElement().getElementsByTagName("changeHS");
+        NodeList changeHSList = findElements("changeHS");
 
         for (int i=0;i<changeHSList.getLength();i++)
         {
@@ -2127,12 +2254,12 @@ public class TranslatorJava extends TranslatorKotlin{
 
 
 
-        Element healthSystem = (Element)getScenarioDocument().getElementsByTagName("healthSystem").item(0);
+        Element healthSystem = findElement("healthSystem");
 
         Element immediateOutcomes = getChildElement(healthSystem, "ImmediateOutcomes");
         String valueString = immediateOutcomes.getAttribute("name");
 
-        System.out.println(valueString);
+        Diagnostics.note("immediateOutcomes", "ImmediateOutcomes: " + valueString);
 
         if (valueString.equals("no Treatment")||valueString.equals("Mortality Fitting")||valueString.equals("no Treatment no Mortality"))
         {
@@ -2697,8 +2824,7 @@ public class TranslatorJava extends TranslatorKotlin{
 
             humanBloodIndex.setNodeValue(Double
                                          .toString(HumanBloodIndexes[mosqType]));
-            System.err
-            .println("There are more than 1 non human hosts types in these scenario. Please edit the relative Ento availabilities for each type of non human host by hand.");
+            Diagnostics.warning("multiple-nonHumanHosts", "There are more than 1 non human hosts types in these scenario. Please edit the relative Ento availabilities for each type of non human host by hand.");
         }
 
         mosq.setAttributeNode(humanBloodIndex);
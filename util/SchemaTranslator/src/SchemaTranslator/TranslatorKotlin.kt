@@ -1,7 +1,6 @@
 package SchemaTranslator
 
 import java.io.File
-import javax.xml.parsers.DocumentBuilderFactory
 import org.w3c.dom.Document
 import org.xml.sax.ErrorHandler
 import org.xml.sax.InputSource
@@ -10,17 +9,15 @@ import org.w3c.dom.Node
 import org.w3c.dom.NodeList
 import kotlin.dom.*
 import java.util.ArrayList
-import javax.xml.transform.TransformerFactory
 import javax.xml.transform.Result
 import javax.xml.transform.OutputKeys
 import javax.xml.transform.dom.DOMSource
+import javax.xml.transform.stream.StreamResult
 import javax.xml.validation.SchemaFactory
 import javax.xml.validation.Schema
 import javax.xml.validation.Validator
 import javax.xml.transform.Source
 import org.xml.sax.SAXParseException
-import java.lang.reflect.Method
-import java.lang.reflect.InvocationTargetException
 import java.util.TreeSet
 import java.util.TreeMap
 import org.w3c.dom.Attr
@@ -32,15 +29,19 @@ class SetupException(msg: String) : Exception(msg) {}
 class DocumentException(msg: String) : Exception(msg) {}
 
 open class STErrorHandler() : ErrorHandler {
+    /** Number of errors (including fatal errors) reported. */
+    var errors = 0
     public override fun fatalError(p0: SAXParseException?) : Unit {
-        System.err.println("Error: " + p0!!.toString())
+        Diagnostics.error("validation", p0!!.toString())
+        ++errors
         throw p0
     }
     public override fun error(p0: SAXParseException?) : Unit {
-        System.err.println("Error: " + p0!!.toString())
+        Diagnostics.error("validation", p0!!.toString())
+        ++errors
     }
     public override fun warning(p0: SAXParseException?) : Unit {
-        System.err.println("Error: " + p0!!.toString())
+        Diagnostics.warning("validation", p0!!.toString())
     }
 }
 
@@ -74,6 +75,67 @@ class Options {
     var doTranslation = true
     var doODTTranslation = false
     var doDBUpdate = false
+    /** Only print which steps each file needs (--plan). */
+    var planOnly = false
+    /** Only count files by version and size (--survey). */
+    var survey = false
+    /** Metrics of an earlier run used by --survey to estimate times
+     * (--step-costs), or null. */
+    var stepCostsFile: String? = null
+    /** Serve translation requests read from stdin instead of translating a
+     * folder (--server). */
+    var server = false
+    /** Write documents without indentation or line breaks
+     * (--compact-output). */
+    var compactOutput = false
+    /** Compress the output of compressed inputs the same way
+     * (--compress-output, see FileCodec). */
+    var compressOutput = false
+    /** Copy files already at the target version unchanged instead of
+     * translating them (--pass-through). */
+    var passThrough = false
+
+    /** Number of files to translate in parallel. */
+    var threads = 1
+    /** Estimated heap bytes per byte of XML, for admission control of
+     * parallel translation (--heap-factor, see HeapBudget); 0 to admit
+     * documents regardless of size. */
+    var heapFactor = HeapBudget.DEFAULT_FACTOR
+
+    /** Database updated by --update-db. */
+    var dbUrl = "jdbc:mysql://127.0.0.1:3306/DBNAME"
+    var dbUser = "USER"
+    var dbPassword = "PASSWD"
+    /** JDBC driver class to load; empty to rely on the driver registering
+     * itself. */
+    var dbDriver = "com.mysql.jdbc.Driver"
+    /** Rows to read per query when reading scenarios (0: all at once). */
+    var dbFetchSize = 100
+    /** Number of rows per batch of updates; each batch is one transaction. */
+    var dbBatchSize = 100
+
+    /** Skip files unchanged since the last run (see TranslationManifest). */
+    var incremental = false
+
+    /** File to write warnings and errors of all documents to
+     * (--diagnostics), or null. */
+    var diagnosticsFile: String? = null
+    /** Collects warnings and errors of all documents if diagnosticsFile is
+     * set. */
+    var diagnostics: Diagnostics.Report? = null
+
+    /** File to write the changes made to each document to
+     * (--diff-report), or null. */
+    var diffReportFile: String? = null
+    /** Collects the changes made to all documents if diffReportFile is
+     * set. */
+    var diffReport: DocumentDiff.Report? = null
+
+    /** File to write metrics to (--metrics), or null. */
+    var metricsFile: String? = null
+    /** Figures of all documents translated with these options, if
+     * measuring. */
+    var metrics: TranslationMetrics? = null
 
     var latestSchema = SchemaName.VERSIONED
 
@@ -86,56 +148,197 @@ class Options {
     var ITN29Translation = ITN29ParameterTranslation.NONE;
     
     var hsTreatmentTranslation = HSTreatmentOption.NONE;
-}
 
-val transformerFactory = TransformerFactory.newInstance()!!
+    /** All options which affect the result of translating a document (not
+     * folders, threads or database settings), as a string. */
+    fun fingerprint(): String =
+        "targetVersion=${targetVersion} latestSchema=${latestSchema} " +
+        "doValidation=${doValidation} doTranslation=${doTranslation} doODTTranslation=${doODTTranslation} " +
+        "maxDensBug=${maxDensBug} iptiSpOption=${iptiSpOption} iptiROAR=${iptiROAR} " +
+        "ITN29Translation=${ITN29Translation} hsTreatmentTranslation=${hsTreatmentTranslation}" +
+        (if (compactOutput) " compactOutput=true" else "") +
+        (if (passThrough) " passThrough=true" else "")
+}
 
 // ———  part 2: translation class and utility functions  ———
 
-fun validate(scenarioDocument: Document, schemaFile: File, options: Options) : Unit {
-    val forValidation: Document = scenarioDocument.cloneNode(true) as Document
-    val scenarioElement: Element = forValidation.getDocumentElement()!!
-    scenarioElement.removeAttribute("xsi:noNamespaceSchemaLocation")
+/** Name of the schema file of schemaVersion, according to
+ * options.latestSchema. */
+fun schemaName(schemaVersion: Int, options: Options): String {
+    return when(options.latestSchema){
+        SchemaName.NO_SUFFIX -> "scenario.xsd"
+        SchemaName.CURRENT -> "scenario_current.xsd"
+        else -> "scenario_" + schemaVersion + ".xsd"
+    }
+}
+
+/** Attributes of the root element to change for validation: the schema
+ * location is removed (the schema is given explicitly) and the attributes
+ * set by the server when running a scenario get dummy values. A null value
+ * means remove. */
+fun validationRootAttributes(options: Options): Map<String, String?> {
+    val attrs = TreeMap<String, String?>()
+    attrs.put("xsi:noNamespaceSchemaLocation", null)
     if (options.targetVersion <= 23){
-        scenarioElement.setAttribute("assimMode", "0")
+        attrs.put("assimMode", "0")
+    }
+    attrs.put("wuID", "123")
+    return attrs
+}
+
+/** Validate scenarioDocument against schemaFile.
+ *
+ * A few tweaks are needed for validation (see below). These are applied to
+ * the document itself rather than to a copy and undone before returning, so
+ * the document must not be used by another thread meanwhile.
+ *
+ * Returns the number of errors reported. */
+fun validate(scenarioDocument: Document, schemaFile: File, options: Options) : Int {
+    val scenarioElement: Element = scenarioDocument.getDocumentElement()!!
+    // original values of changed attributes (null if not present)
+    val savedAttrs = TreeMap<String, String?>()
+    fun setTemporarily(name: String, value: String?){
+        if (!savedAttrs.containsKey(name))
+            savedAttrs.put(name, if (scenarioElement.hasAttribute(name)) scenarioElement.getAttribute(name) else null)
+        if (value == null) scenarioElement.removeAttribute(name)
+        else scenarioElement.setAttribute(name, value)
     }
+    var oldParamsText: String? = null
+    var dummyParameters: Element? = null
+
+    try{
+        for (item in validationRootAttributes(options)){
+            setTemporarily(item.component1(), item.component2())
+        }
+
+        val t_parameters: Element? = scenarioElement.getElementsByTagName("parameters").item(0) as Element?
+        if (t_parameters != null && t_parameters.getNodeValue() != null &&
+        (t_parameters.getNodeValue()!!.contains("@parameters@")))
+        {
+            oldParamsText = t_parameters.getLastChild()!!.getNodeValue()
+            t_parameters.getLastChild()!!.setNodeValue("")
+            val parameters: Element = scenarioDocument.createElement("parameters")!!
+            parameters.setAttribute("latentp", "0")
+            parameters.setAttribute("delta", "0")
+            parameters.setAttribute("interval", "0")
+            parameters.setAttribute("iseed", "0")
+            val parameter: Element = scenarioDocument.createElement("parameter")!!
+            parameter.setAttribute("value", "0")
+            parameter.setAttribute("name", "0")
+            parameter.setAttribute("number", "0")
+            parameters.appendChild(parameter)
+            scenarioElement.appendChild(parameters)
+            dummyParameters = parameters
+        }
 
-    scenarioElement.setAttribute("wuID", "123")
-    val t_parameters: Element? = scenarioElement.getElementsByTagName("parameters").item(0) as Element?
-    if (t_parameters != null && t_parameters.getNodeValue() != null &&
-    (t_parameters.getNodeValue()!!.contains("@parameters@")))
-    {
-        t_parameters.getLastChild()!!.setNodeValue("")
-        val parameters: Element = forValidation.createElement("parameters")!!
-        parameters.setAttribute("latentp", "0")
-        parameters.setAttribute("delta", "0")
-        parameters.setAttribute("interval", "0")
-        parameters.setAttribute("iseed", "0")
-        val parameter: Element = forValidation.createElement("parameter")!!
-        parameter.setAttribute("value", "0")
-        parameter.setAttribute("name", "0")
-        parameter.setAttribute("number", "0")
-        parameters.appendChild(parameter)
-        scenarioElement.appendChild(parameters)
+        // Schemas are compiled once per JVM and validators re-used per thread
+        val validator: Validator = SchemaCache.getValidator(schemaFile)!!
+        val errorHandler = STErrorHandler()
+        validator.setErrorHandler(errorHandler)
+        val source: Source = DOMSource(scenarioDocument)
+        validator.validate(source)
+        return errorHandler.errors
+    }finally{
+        if (dummyParameters != null){
+            scenarioElement.removeChild(dummyParameters!!)
+            val t_parameters = scenarioElement.getElementsByTagName("parameters").item(0)!!
+            t_parameters.getLastChild()!!.setNodeValue(oldParamsText)
+        }
+        for (item in savedAttrs){
+            val value = item.component2()
+            if (value == null) scenarioElement.removeAttribute(item.component1())
+            else scenarioElement.setAttribute(item.component1(), value)
+        }
     }
+}
 
-    val factory: SchemaFactory = SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema")
-    val schema: Schema = factory.newSchema(schemaFile)!!
-    val validator: Validator = schema.newValidator()!!
-    validator.setErrorHandler(STErrorHandler())
-    val source: Source = DOMSource(forValidation)
-    validator.validate(source)
+/** Validate input against schemaFile while reading it, without building a
+ * DOM (see StreamingTranslator.validate), with the same tweaks to the root
+ * element as validate(). Unlike validate(), namespaces are processed.
+ *
+ * Returns the number of errors reported. */
+fun validateStreaming(input: InputSource, schemaFile: File, options: Options) : Int {
+    val validator: Validator = SchemaCache.getValidator(schemaFile)!!
+    val errorHandler = STErrorHandler()
+    validator.setErrorHandler(errorHandler)
+    StreamingTranslator.validate(input, validator, validationRootAttributes(options))
+    return errorHandler.errors
 }
 
+/** Input which is an already parsed document. A Translator given this
+ * translates the document itself, in place, instead of parsing. */
+class DocumentInputSource(val document: Document) : InputSource()
+
 abstract class Translator(input: InputSource, options: Options) {
     protected val options: Options = options
-    val builder = DocumentBuilderFactory.newInstance()?.newDocumentBuilder()!!
-    protected var scenarioDocument: Document = builder.parse(input)!!
+    /** Measurements of this document if options.metrics is set, else null. */
+    val metrics: TranslationMetrics.Recorder? = options.metrics?.newRecorder()
+    /** Document as read: steps which can be streamed have already been
+     * applied (see StreamingTranslator). */
+    private val parsed: StreamingTranslator.Result = parse(input)
+    protected var scenarioDocument: Document = parsed.getDocument()!!
     protected var scenarioElement: Element = scenarioDocument.getDocumentElement()!!
+    /** Number of errors reported by validation in translateAndValidate. */
+    var validationErrors = 0
+    /** Elements by tag name; kept up to date as the document changes. */
+    protected val elementIndex: ElementIndex = ElementIndex(scenarioDocument)
+
+    private fun parse(input: InputSource): StreamingTranslator.Result {
+        metrics?.begin()
+        Diagnostics.setStep("parse")
+        try{
+            val result =
+                if (input is DocumentInputSource) StreamingTranslator.fromDocument(input.document)!!
+                else StreamingTranslator.parse(input, XmlPool.getDocumentBuilder(), options.targetVersion)!!
+            metrics?.watch(result.getDocument())
+            return result
+        }catch(e: StreamingTranslator.StepException){
+            throw DocumentException(e.getMessage()!!)
+        }finally{
+            metrics?.endParse()
+        }
+    }
+
+    /** The scenario document, as translated so far. */
+    fun getDocument(): Document = scenarioDocument
+
+    /** Add the measurements of this document to options.metrics (if
+     * measuring) and stop following changes to the document (see
+     * ElementIndex.detach): the listeners would slow down all later changes
+     * to it. Call once, when done translating the document; it may still be
+     * written afterwards. */
+    fun finish(){
+        elementIndex.detach()
+        metrics?.unwatch()
+        if (metrics != null) options.metrics!!.add(metrics)
+    }
 
     fun writeTo(result: Result){
+        metrics?.begin()
+        try{
+            write(result)
+        }finally{
+            metrics?.endWriteTo()
+        }
+    }
+    private fun write(result: Result){
+        val indent = !options.compactOutput
+        // Streams get the direct serializer; its output is the same as
+        // that of the Transformer below.
+        if (result is StreamResult && ScenarioSerializer.canWrite(scenarioDocument)){
+            val stream = result.getOutputStream()
+            val writer = result.getWriter()
+            if (stream != null){
+                ScenarioSerializer.write(scenarioDocument, stream, indent)
+                return
+            }else if (writer != null){
+                ScenarioSerializer.write(scenarioDocument, writer, indent)
+                return
+            }
+        }
+
         // Write the DOM document to the file
-        val xformer = transformerFactory.newTransformer()!!
+        val xformer = XmlPool.getTransformer()!!
         xformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8")
         xformer.setOutputProperty(OutputKeys.METHOD, "xml")
 
@@ -143,30 +346,30 @@ abstract class Translator(input: InputSource, options: Options) {
         stripWhitespace(scenarioElement, org.w3c.dom.Node.TEXT_NODE, "#text")
         scenarioDocument.normalize()
         // Then add new indentation/new-lines:
-        xformer.setOutputProperty(OutputKeys.INDENT, "yes")
-        xformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2")
+        if (indent){
+            xformer.setOutputProperty(OutputKeys.INDENT, "yes")
+            xformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2")
+        }
 
         xformer.transform(DOMSource(scenarioDocument), result)
     }
-    // Helper function to strip old white-space.
-    // Source: http://forums.sun.com/thread.jspa?threadID=5201482
+    // Helper function to strip old white-space: removes all nodes of the
+    // given type and name whose value is only white-space, in one pass.
     fun stripWhitespace(start: Node, nodeType: Short, name: String) {
-        fun visit(node: Node){
-            for (child in node.getChildNodes().toList()){
-                if (child.getNodeType() == nodeType &&
-                    child.getNodeName()!!.trim() == name &&
-                    child.getNodeValue()!!.trim() == "")
-                {
-                    child.getParentNode()!!.removeChild(child)
-                    // child was removed so list invalid; easiest is to start again:
-                    visit(node)
-                    break;
-                } else {
-                    visit(child)
-                }
+        var child: Node? = start.getFirstChild()
+        while (child != null){
+            // get the next sibling before child is (possibly) removed
+            val next: Node? = child.getNextSibling()
+            if (child.getNodeType() == nodeType &&
+                child.getNodeName()!!.trim() == name &&
+                child.getNodeValue()!!.trim() == "")
+            {
+                start.removeChild(child)
+            } else {
+                stripWhitespace(child, nodeType, name)
             }
+            child = next
         }
-        visit(start)
     }
 
     fun getChildNodes(node: Node, name: String) : ArrayList<Node> {
@@ -192,17 +395,40 @@ abstract class Translator(input: InputSource, options: Options) {
         return r
     }
     fun getChildElement(node: Node, name: String): Element {
-        var elts : List<Node> = getChildNodes(node, name)
-        if (elts.size > 1)
-            throw DocumentException("Expected ${node.getNodeName()} not to have more than one sub-element with name ${name}")
-        if (elts.size == 1) return elts.get(0) as Element
-        throw DocumentException( "Node ${node.getNodeName()} does not have required child ${name}" )
+        val elt = getChildElementOpt(node, name)
+        if (elt == null)
+            throw DocumentException( "Node ${node.getNodeName()} does not have required child ${name}" )
+        return elt
     }
     fun getChildElementOpt(node: Node, name: String): Element? {
-        var elts : List<Node> = getChildNodes(node, name)
-        if (elts.size > 1)
-            throw DocumentException("Expected ${node.getNodeName()} not to have more than one sub-element with name ${name}")
-        return if (elts.size == 1) elts.get(0) as Element else null
+        var found: Node? = null
+        var child: Node? = node.getFirstChild()
+        while (child != null){
+            if (name == child.getNodeName()){
+                if (found != null)
+                    throw DocumentException("Expected ${node.getNodeName()} not to have more than one sub-element with name ${name}")
+                found = child
+            }
+            child = child.getNextSibling()
+        }
+        return found as Element?
+    }
+    /** Elements named name (or "*" for all) below the root element, in
+     * document order. Like scenarioElement.getElementsByTagName(name), but
+     * answered from elementIndex, and the list is not live. */
+    fun findElements(name: String): NodeList = elementIndex.getElementsByTagName(scenarioElement, name)!!
+    /** First of findElements(name), or null. */
+    fun findElement(name: String): Element? = elementIndex.getFirstElementByTagName(scenarioElement, name)
+    /** Rename elt. Use this instead of Document.renameNode, so that
+     * elementIndex stays up to date. */
+    fun renameElement(elt: Node, name: String): Element = renameElement(elt, null, name)
+    fun renameElement(elt: Node, namespaceURI: String?, name: String): Element {
+        metrics?.beginRename()
+        try{
+            return elementIndex.rename(elt as Element, namespaceURI, name)!!
+        }finally{
+            metrics?.endRename()
+        }
     }
     fun getOrCreateSubElt(parent: Element, name: String): Element {
         val child: Element? = getChildElement(parent, name)
@@ -214,7 +440,7 @@ abstract class Translator(input: InputSource, options: Options) {
             return child
     }
     fun usesOption(name: String): Boolean {
-        var opts : Element = scenarioElement.getElementsByTagName("ModelOptions").item(0) as Element
+        var opts : Element = findElement("ModelOptions")!!
         for (n: Node in getChildNodes(opts, "option")){
             var e: Element = n as Element
             if (e.getAttribute("name") == name){
@@ -224,67 +450,82 @@ abstract class Translator(input: InputSource, options: Options) {
         return name == "MAX_DENS_CORRECTION"
     }
 
-    private fun genSchemaName(schemaVersion : Int): String {
-        return when(options.latestSchema){
-            SchemaName.NO_SUFFIX -> "scenario.xsd"
-            SchemaName.CURRENT -> "scenario_current.xsd"
-            else -> "scenario_" + schemaVersion + ".xsd"
+    private fun genSchemaName(schemaVersion : Int): String = schemaName(schemaVersion, options)
+
+    /** Set schemaVersion and the schema location on the root element. */
+    private fun setSchemaAttributes(schemaVersion: Int){
+        scenarioElement.setAttribute("schemaVersion", Integer.toString(schemaVersion))
+        if (schemaVersion < 32){
+            scenarioElement.setAttribute("xsi:noNamespaceSchemaLocation", genSchemaName(schemaVersion))
+        }else{
+            // From version 32, we use an explicit namespace:
+            scenarioElement.setAttribute("xsi:schemaLocation",
+                "http://openmalaria.org/schema/scenario_" + Integer.toString(schemaVersion)
+                + " " + genSchemaName(schemaVersion))
         }
     }
 
-    /** Translate the current document to the target version, potentially
-     * also translating to use the one-day timestep.
+    /** Translate the current document to the target version (see
+     * TranslationPlan), potentially also translating to use the one-day
+     * timestep.
      *
      * Throws a DocumentException on failure due to errors in the document (or
      * potentially the translation code).
      */
     fun translateAndValidate() : String {
         scenarioElement = scenarioDocument.getDocumentElement()!!
-        var schemaVersion : Int = Integer.parseInt("0" + scenarioElement.getAttribute("schemaVersion"))
-        var schemaFileName : String = genSchemaName(schemaVersion)
-        val cls : Class<in Translator> = this.javaClass
-
-        while (schemaVersion < options.targetVersion){
-            ++schemaVersion
-            schemaFileName = genSchemaName(schemaVersion)
-            scenarioElement.setAttribute("schemaVersion", Integer.toString(schemaVersion))
-            if (schemaVersion < 32){
-                scenarioElement.setAttribute("xsi:noNamespaceSchemaLocation", schemaFileName)
-            }else{
-                // From version 32, we use an explicit namespace:
-                scenarioElement.setAttribute("xsi:schemaLocation",
-                    "http://openmalaria.org/schema/scenario_" + Integer.toString(schemaVersion)
-                    + " " + schemaFileName)
-            }
-
-            val translateMeth : String = "translate" + (schemaVersion - 1) + "To" + schemaVersion
-            val method : Method? = cls.getMethod(translateMeth)
-            if (method == null)
-                throw Exception("Method " + translateMeth + " not found")
+        val plan = TranslationPlan.create(parsed.getSourceVersion(), parsed.getVersion(), options.targetVersion)!!
+        val steps = plan.getSteps()!!
+        val rules = rewriteRules()
+        // steps up to this index have had their rules applied
+        var rulesApplied = -1
+        for (i in steps.indices){
+            val fromVersion = steps[i]
+            metrics?.begin()
+            Diagnostics.setStep(Diagnostics.stepName(fromVersion))
             try{
-                val result = method.invoke(this) // invoke, may throw
-                if (result != null){    // null result implies success
-                    when (result){
-                        // for backwards compatibility:
-                        is Boolean -> {
-                            if (!result) throw DocumentException("Translation failed (no message)")
-                        }
-                        else -> throw Exception("Unexpected result value while updating to version ${schemaVersion}:  \"${result}\"")
-                    }
+                if (i > rulesApplied){
+                    // rules of steps without code are applied together with
+                    // those of the following steps, in one traversal
+                    var last = i
+                    while (last + 1 < steps.size && rules.isRuleOnly(steps[last])) last += 1
+                    rules.compile(java.util.Arrays.copyOfRange(steps, i, last + 1))!!
+                        .apply(scenarioElement, elementIndex, metrics)
+                    rulesApplied = last
                 }
-            }catch(e: InvocationTargetException){
-                // The called method threw an exception and invoke() wrapped
-                // it. Unwrap it and rethrow:
-                throw e.getCause()!!
+                if (!rules.isRuleOnly(fromVersion) && !translateStep(fromVersion))
+                    throw DocumentException("Translation failed (no message)")
+            }finally{
+                metrics?.endStep(fromVersion)
             }
         }
+        // Steps don't use the schema attributes, so these are only set for
+        // the final version (streamed steps only update schemaVersion).
+        val schemaVersion = plan.getTargetVersion()
+        val schemaFileName = genSchemaName(schemaVersion)
+        if (schemaVersion > plan.getSourceVersion())
+            setSchemaAttributes(schemaVersion)
         if (schemaVersion == 18 && options.doODTTranslation){
-            oDTTranslation()
+            metrics?.begin()
+            Diagnostics.setStep("oDTTranslation")
+            try{
+                oDTTranslation()
+            }finally{
+                metrics?.endODTTranslation()
+            }
         }
 
-        if (options.doValidation)
-            validate(scenarioDocument, File(options.schemaFolder, schemaFileName), options);
+        if (options.doValidation){
+            metrics?.begin()
+            Diagnostics.setStep("validate")
+            try{
+                validationErrors = validate(scenarioDocument, File(options.schemaFolder, schemaFileName), options);
+            }finally{
+                metrics?.endValidate()
+            }
+        }
 
+        Diagnostics.setStep(null)
         return schemaFileName
     }
 
@@ -295,6 +536,14 @@ abstract class Translator(input: InputSource, options: Options) {
      */
     protected abstract fun oDTTranslation(): Unit
 
+    /** Apply the translation step from fromVersion to fromVersion+1.
+     *
+     * Returns false or throws on failure. */
+    protected abstract fun translateStep(fromVersion: Int): Boolean
+
+    /** Rules applied before the code of each step (see RewriteRules). */
+    protected abstract fun rewriteRules(): RewriteRules
+
     /** Throw an exception, but pretend (for the purposes of the Java
      * compiler's exception checking) that we don't.
      * 
@@ -497,11 +746,11 @@ abstract class TranslatorKotlin(input: InputSource, options: Options) : Translat
                     
                     if (stripDescElt){
                         val desc = getChildElement(elt,"description")
-                        val renamed = scenarioDocument.renameNode(desc,"",trgName)!!
+                        val renamed = renameElement(desc, "", trgName)
                         component.appendChild(renamed)
                         interventions.removeChild(elt)  // now defunct
                     }else{
-                        val renamed = scenarioDocument.renameNode(elt,"",trgName)!!
+                        val renamed = renameElement(elt, "", trgName)
                         component.appendChild(renamed) // after removal of "continuous" and "timed" child elements
                     }
                     return component
@@ -519,7 +768,7 @@ abstract class TranslatorKotlin(input: InputSource, options: Options) : Translat
                     
                     val desc1d = getChildElementOpt(elt, "description")
                     if (desc1d != null ){
-                        val renamed = scenarioDocument.renameNode(desc1d, "", "MDA1D")!!
+                        val renamed = renameElement(desc1d, "", "MDA1D")
                         component.appendChild(renamed)
                         interventions.removeChild(elt)
                     }else{
@@ -548,7 +797,7 @@ abstract class TranslatorKotlin(input: InputSource, options: Options) : Translat
                         val ident = componentIdent(vaccineType)
                         idents.add(ident)
                         val component = newComponent(ident, null)
-                        val renamed = scenarioDocument.renameNode(vacc,"",vaccineType)!!
+                        val renamed = renameElement(vacc, "", vaccineType)
                         component.appendChild(renamed)
                     }
                     if (idents.size == 0){
@@ -571,10 +820,10 @@ abstract class TranslatorKotlin(input: InputSource, options: Options) : Translat
                     val renamed = if (desc != null){
                         changeIRSReportingToGVI = true
                         name = "GVI"
-                        scenarioDocument.renameNode(desc,"",name)!!
+                        renameElement(desc, "", name)
                     }else{
                         val desc2 = getChildElement(elt,"description_v2")
-                        scenarioDocument.renameNode(desc2,"",name)!!
+                        renameElement(desc2, "", name)
                     }
                     val ident = componentIdent(name)
                     val component = newComponent(ident, elt.getAttributeNode("name")?.getValue())
@@ -661,12 +910,7 @@ abstract class TranslatorKotlin(input: InputSource, options: Options) : Translat
             monitoring.removeAttribute("firstBoutOnly")
             monitoring.removeAttribute("firstTreatmentOnly")
             monitoring.removeAttribute("firstInfectionOnly")
-
-            val survOpts = getChildElement(monitoring, "SurveyOptions")
-            for (opt in getChildElements(survOpts, "option")){
-                if (opt.getAttribute("name") == "nMassVA")
-                    opt.setAttribute("name", "nMassGVI")
-            }
+            // nMassVA is renamed by a rule (see TranslatorJava.rules)
         }
         
         val healthSystem = getChildElementOpt(scenarioElement, "healthSystem")
@@ -695,7 +939,7 @@ abstract class TranslatorKotlin(input: InputSource, options: Options) : Translat
         // From version 32, we use an explicit namespace; delete the old here,
         // the new is set by translateAndValidate()
         scenarioElement.removeAttribute("xsi:noNamespaceSchemaLocation")
-        scenarioDocument.renameNode(scenarioElement, 
+        renameElement(scenarioElement,
             "http://openmalaria.org/schema/scenario_32", "om:scenario")
         scenarioElement = scenarioDocument.getDocumentElement()!!
     }
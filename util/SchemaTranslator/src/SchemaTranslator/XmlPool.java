@@ -0,0 +1,79 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+/** Per-thread DocumentBuilder and Transformer instances.
+ *
+ * Looking up the factories (a service-loader search) and creating builders
+ * and transformers costs more than many small scenarios take to translate.
+ * Factories are therefore looked up once per JVM, and each thread keeps
+ * one builder and one transformer, reset before each use. (Validators are
+ * kept per thread by SchemaCache.)
+ *
+ * The objects returned belong to the calling thread and must not be passed
+ * to other threads.
+ *
+ * This class only depends on the JDK. */
+public final class XmlPool {
+    private XmlPool() {}
+
+    // Factories are not thread-safe; they are only used under their lock.
+    private static final DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+    private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+
+    private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>();
+    private static final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>();
+
+    /** The calling thread's DocumentBuilder, reset. */
+    public static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = builders.get();
+        if( builder == null ){
+            synchronized( builderFactory ){
+                builder = builderFactory.newDocumentBuilder();
+            }
+            builders.set( builder );
+        }else{
+            builder.reset();
+        }
+        return builder;
+    }
+
+    /** The calling thread's identity Transformer, reset (so without output
+     * properties set). */
+    public static Transformer getTransformer() throws TransformerConfigurationException {
+        Transformer transformer = transformers.get();
+        if( transformer == null ){
+            synchronized( transformerFactory ){
+                transformer = transformerFactory.newTransformer();
+            }
+            transformers.set( transformer );
+        }else{
+            transformer.reset();
+        }
+        return transformer;
+    }
+}
@@ -0,0 +1,86 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/** DocumentDiff on small document pairs. */
+public class DocumentDiffTest {
+    private static List<String> compare( String original, String translated ) throws Exception {
+        List<String> changes = new ArrayList<String>();
+        for( DocumentDiff.Change c : DocumentDiff.compare( TestFiles.parse( original ), TestFiles.parse( translated ) ) ){
+            changes.add( c.toString() );
+        }
+        return changes;
+    }
+
+    @Test
+    public void reportsEachKindOfChange() throws Exception {
+        String original = "<s>"
+                + "<a x=\"1\" y=\"2\">old</a>"
+                + "<b><c/></b>"
+                + "<d k=\"v\"><e/></d>"
+                + "<g>keep</g>"
+                + "<h><i n=\"1\"/></h>"
+                + "<j/>"
+                + "<r q=\"1\"/>"
+                + "</s>";
+        String translated = "<s>"
+                + "<a x=\"1\" y=\"3\" z=\"4\">new</a>"
+                + "<bb><c/></bb>"
+                + "<g>keep</g>"
+                + "<h/>"
+                + "<j><i n=\"1\"/></j>"
+                + "<d k=\"v\"><e/></d>"
+                + "<added p=\"2\"/>"
+                + "</s>";
+        assertEquals( Arrays.asList(
+                "attribute /s/a/@y: 2 -> 3",
+                "attribute /s/a/@z: null -> 4",
+                "text /s/a: old -> new",
+                "renamed /s/b to /s/bb",
+                "moved /s/d to /s/d",           // the others kept their order
+                "moved /s/h/i to /s/j/i",       // removed and added identically
+                "removed /s/r",
+                "added /s/added" ), compare( original, translated ) );
+    }
+
+    @Test
+    public void ignoresCommentsWhiteSpaceAndAttributeOrder() throws Exception {
+        assertEquals( new ArrayList<String>(), compare(
+                "<s><a x=\"1\" y=\"2\"> text </a><!-- c --><b/></s>",
+                "<s>\n  <a y=\"2\" x=\"1\">text</a>\n  <b/>\n</s>" ) );
+    }
+
+    /** Siblings with equal hashes are paired only if equal; here the
+     * second a of each document differs only in a child attribute. */
+    @Test
+    public void pairsEqualSubtreesOnly() throws Exception {
+        assertEquals( Arrays.asList( "attribute /s/a[2]/c/@v: 1 -> 2" ), compare(
+                "<s><a><c v=\"0\"/></a><a><c v=\"1\"/></a></s>",
+                "<s><a><c v=\"0\"/></a><a><c v=\"2\"/></a></s>" ) );
+    }
+}
@@ -0,0 +1,205 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** ElementIndex must answer as the DOM does while the document changes. */
+public class ElementIndexTest {
+    private static final String[] NAMES = new String[]{ ElementIndex.ALL, "a", "b", "c", "r0", "r1", "x:r" };
+
+    private static void assertSameList( String what, NodeList expected, NodeList actual ){
+        assertEquals( what, expected.getLength(), actual.getLength() );
+        for( int i = 0; i < expected.getLength(); ++i ){
+            assertSame( what + " [" + i + "]", expected.item( i ), actual.item( i ) );
+        }
+    }
+
+    /** Compare the index with the DOM for each name, below scope. */
+    private static void assertMatches( ElementIndex index, Element scope ){
+        for( String name : NAMES ){
+            NodeList expected = scope.getElementsByTagName( name );
+            assertSameList( name + " below " + scope.getTagName(), expected,
+                    index.getElementsByTagName( scope, name ) );
+            assertSame( expected.item( 0 ), index.getFirstElementByTagName( scope, name ) );
+        }
+    }
+
+    private static Document newDocument( int children ) throws Exception {
+        Document document = TestFiles.newBuilder().newDocument();
+        Element root = document.createElement( "root" );
+        document.appendChild( root );
+        for( int i = 0; i < children; ++i ){
+            Element elt = document.createElement( i % 3 == 0 ? "a" : "b" );
+            if( i % 5 == 0 ) elt.appendChild( document.createElement( "c" ) );
+            root.appendChild( elt );
+        }
+        return document;
+    }
+
+    private static List<Element> elements( Element root ){
+        List<Element> all = new ArrayList<Element>();
+        all.add( root );
+        NodeList list = root.getElementsByTagName( "*" );
+        for( int i = 0; i < list.getLength(); ++i ) all.add( (Element) list.item( i ) );
+        return all;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static IdentityHashMap<Element, Long> labels( ElementIndex index ) throws Exception {
+        Field field = ElementIndex.class.getDeclaredField( "labels" );
+        field.setAccessible( true );
+        return (IdentityHashMap<Element, Long>) field.get( index );
+    }
+
+    /** Labels must increase in document order. */
+    private static void assertLabelsOrdered( ElementIndex index, Element root ) throws Exception {
+        IdentityHashMap<Element, Long> labels = labels( index );
+        List<Element> all = elements( root );
+        assertEquals( all.size(), labels.size() );
+        for( int i = 1; i < all.size(); ++i ){
+            assertTrue( labels.get( all.get( i - 1 ) ) < labels.get( all.get( i ) ) );
+        }
+    }
+
+    @Test
+    public void followsRandomChanges() throws Exception {
+        Document document = newDocument( 500 );
+        Element root = document.getDocumentElement();
+        ElementIndex index = new ElementIndex( document );
+        Random random = new Random( 1 );
+        List<Element> all = elements( root );
+        for( int i = 0; i < 5000; ++i ){
+            Element elt = all.get( random.nextInt( all.size() ) );
+            if( elt.getParentNode() == null ) continue;     // removed
+            int op = random.nextInt( 6 );
+            if( op == 0 ){
+                // a new subtree
+                Element c = document.createElement( "c" );
+                Element a = document.createElement( "a" );
+                c.appendChild( a );
+                elt.appendChild( c );
+                all.add( c );
+                all.add( a );
+            }else if( op == 1 && elt != root ){
+                Element b = document.createElement( "b" );
+                elt.getParentNode().insertBefore( b, elt );
+                all.add( b );
+            }else if( op == 2 && elt != root && random.nextInt( 4 ) == 0 ){
+                elt.getParentNode().removeChild( elt );
+            }else if( op == 3 && elt != root ){
+                // move: removal and insertion
+                Element to = all.get( random.nextInt( all.size() ) );
+                if( to.getParentNode() != null && !isAncestorOrSelf( elt, to ) ) to.appendChild( elt );
+            }else if( op == 4 && elt != root ){
+                all.add( index.rename( elt, null, "r" + random.nextInt( 2 ) ) );
+            }else{
+                Element a = document.createElement( "a" );
+                elt.appendChild( a );
+                all.add( a );
+            }
+            if( i % 500 == 0 ) assertMatches( index, root );
+        }
+        assertMatches( index, root );
+        assertLabelsOrdered( index, root );
+        for( int k = 0; k < 200; ++k ){
+            Element scope = all.get( random.nextInt( all.size() ) );
+            // removed elements are answered by the DOM
+            assertMatches( index, scope );
+        }
+        index.detach();
+    }
+
+    private static boolean isAncestorOrSelf( Node ancestor, Node node ){
+        for( Node n = node; n != null; n = n.getParentNode() ){
+            if( n == ancestor ) return true;
+        }
+        return false;
+    }
+
+    /** Inserting again and again after the same element halves the room
+     * left each time, until all elements are relabelled. */
+    @Test
+    public void relabelsWhenInsertingAtOnePosition() throws Exception {
+        Document document = newDocument( 20 );
+        Element root = document.getDocumentElement();
+        ElementIndex index = new ElementIndex( document );
+        Element before = (Element) root.getChildNodes().item( 10 );
+        boolean relabelled = false;
+        for( int i = 0; i < 64 && !relabelled; ++i ){
+            Element elt = document.createElement( i % 2 == 0 ? "a" : "c" );
+            root.insertBefore( elt, before );
+            before = elt;
+            assertMatches( index, root );
+            // only a rebuild gives an inserted element a multiple of the
+            // build gap, 2^32 (insertions use at most 2^16)
+            relabelled = true;
+            for( Long label : labels( index ).values() ){
+                if( label % (1L << 32) != 0 ) relabelled = false;
+            }
+        }
+        assertTrue( "no relabelling", relabelled );
+        assertLabelsOrdered( index, root );
+        // and the index still follows changes
+        root.insertBefore( document.createElement( "b" ), before );
+        assertMatches( index, root );
+        assertLabelsOrdered( index, root );
+        index.detach();
+    }
+
+    /** Xerces replaces an element without namespace when giving it one. */
+    @Test
+    public void followsRenameToNewNode() throws Exception {
+        Document document = newDocument( 30 );
+        Element root = document.getDocumentElement();
+        ElementIndex index = new ElementIndex( document );
+        Element elt = (Element) root.getChildNodes().item( 5 );
+        Element child = document.createElement( "a" );
+        elt.appendChild( child );
+        Element renamed = index.rename( elt, "urn:x", "x:r" );
+        assertNotSame( elt, renamed );
+        assertSame( renamed, root.getChildNodes().item( 5 ) );
+        assertSame( renamed, child.getParentNode() );
+        assertMatches( index, root );
+        assertMatches( index, renamed );
+        assertLabelsOrdered( index, root );
+
+        // renaming in place keeps the node
+        Element other = (Element) root.getChildNodes().item( 7 );
+        assertSame( other, index.rename( other, null, "r1" ) );
+        assertMatches( index, root );
+        index.detach();
+    }
+}
@@ -0,0 +1,109 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Admission order of HeapBudget. */
+public class HeapBudgetTest {
+    /** Acquires amount in a new thread, then records name in admitted. */
+    private static Thread acquire( final HeapBudget budget, final long amount, final String name,
+            final List<String> admitted ) throws InterruptedException {
+        Thread thread = new Thread( name ){
+            public void run(){
+                try{
+                    budget.acquire( amount );
+                    admitted.add( name );
+                }catch( InterruptedException e ){
+                    admitted.add( name + " interrupted" );
+                }
+            }
+        };
+        thread.start();
+        // wait until it is blocked (or done)
+        while( thread.isAlive() && thread.getState() != Thread.State.WAITING ) Thread.sleep( 1 );
+        return thread;
+    }
+
+    @Test(timeout = 10000)
+    public void smallDocumentsOvertakeBlockedHeadAFewTimes() throws Exception {
+        HeapBudget budget = new HeapBudget( 100, 1, 2 );
+        List<String> admitted = Collections.synchronizedList( new ArrayList<String>() );
+        long held = budget.acquire( 60 );
+        Thread large = acquire( budget, 80, "large", admitted );
+        assertTrue( large.isAlive() );
+
+        // two which fit go ahead of the large one
+        long small1 = budget.acquire( 30 );
+        long small2 = budget.acquire( 10 );
+        budget.release( small1 );
+
+        // a third would fit, but the large one has been overtaken enough
+        Thread small3 = acquire( budget, 10, "small3", admitted );
+        assertTrue( small3.isAlive() );
+        assertTrue( admitted.isEmpty() );
+
+        budget.release( held );
+        large.join();
+        small3.join();
+        assertEquals( "[large, small3]", admitted.toString() );
+        budget.release( small2 );
+    }
+
+    @Test(timeout = 10000)
+    public void admitsInOrderAmongThoseWhichFit() throws Exception {
+        HeapBudget budget = new HeapBudget( 100, 1 );
+        List<String> admitted = Collections.synchronizedList( new ArrayList<String>() );
+        long held = budget.acquire( 100 );
+        Thread first = acquire( budget, 50, "first", admitted );
+        Thread second = acquire( budget, 60, "second", admitted );
+        Thread third = acquire( budget, 10, "third", admitted );
+        // 60 is freed: first fits and goes; second would not fit beside it,
+        // third does and overtakes second
+        budget.release( 60 );
+        first.join();
+        third.join();
+        assertTrue( second.isAlive() );
+        assertEquals( "[first, third]", admitted.toString() );
+        budget.release( held - 60 );
+        budget.release( 50 );
+        second.join();
+        assertEquals( "[first, third, second]", admitted.toString() );
+    }
+
+    @Test(timeout = 10000)
+    public void oversizeDocumentIsAdmittedAlone() throws Exception {
+        HeapBudget budget = new HeapBudget( 100, 1 );
+        List<String> admitted = Collections.synchronizedList( new ArrayList<String>() );
+        long held = budget.acquire( 1 );
+        Thread huge = acquire( budget, 1000, "huge", admitted );
+        assertTrue( huge.isAlive() );
+        budget.release( held );
+        huge.join();
+        assertEquals( "[huge]", admitted.toString() );
+    }
+}
@@ -0,0 +1,139 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Rules applied in one traversal must give what the steps' code did
+ * before (and what applying each step's rules in turn gives). */
+public class RewriteRulesTest {
+    /** rewrite/v29.xml exercises every rule of steps 29 and 31, next to
+     * code of the same steps (MDA, entomology mode). The expected outputs
+     * were written by the translator before these steps used rules. */
+    @Test
+    public void translatesV29LikeStepCode() throws Exception {
+        String input = TestFiles.resource( "rewrite/v29.xml" );
+        for( int target = 30; target <= 32; ++target ){
+            TranslatorJava translator = new TranslatorJava(
+                    new InputSource( new ByteArrayInputStream( input.getBytes( "UTF-8" ) ) ), TestFiles.options( target ) );
+            translator.translateAndValidate();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            translator.writeTo( new StreamResult( out ) );
+            translator.finish();
+            String actual = out.toString( "UTF-8" ).replace( System.getProperty( "line.separator" ), "\n" );
+            assertEquals( "29 to " + target, TestFiles.resource( "rewrite/v29-to-" + target + ".xml" ), actual );
+        }
+    }
+
+    /** Two steps without code: the first renames, removes an attribute and
+     * creates elements matching its own rules; the second renames what the
+     * first renamed, under an ancestor the first renamed. */
+    private static RewriteRules syntheticRules(){
+        return new RewriteRules()
+            .ruleOnly( 1 )
+                .renameElement( "a/b", "c" )
+                .renameElement( "root/a", "p" )
+                .removeAttribute( "c@old" )
+                .appendElement( "a", "b", "x", "1" )
+                .attributeToElement( "a@b" )
+            .ruleOnly( 2 )
+                .renameElement( "p/c", "d" )
+                .renameAttribute( "p/b@x", "y" )
+                .replaceValue( "b@value", "2", "3" );
+    }
+
+    private static final String SYNTHETIC =
+        "<root><a b=\"2\"><b old=\"o\" n=\"1\"/><q><b n=\"2\"/></q><b n=\"3\"/></a><c old=\"o\"/></root>";
+
+    private static Document apply( RewriteRules rules, int[]... sequences ) throws Exception {
+        Document document = TestFiles.parse( SYNTHETIC );
+        ElementIndex index = new ElementIndex( document );
+        for( int[] sequence : sequences ){
+            rules.compile( sequence ).apply( document.getDocumentElement(), index, null );
+        }
+        // the index must have followed the renames
+        for( String name : new String[]{ "a", "b", "c", "d", "p", "q" } ){
+            assertEquals( name, document.getElementsByTagName( name ).getLength(),
+                    index.getElementsByTagName( document.getDocumentElement(), name ).getLength() );
+        }
+        index.detach();
+        return document;
+    }
+
+    @Test
+    public void fusedStepsEqualStepsInTurn() throws Exception {
+        RewriteRules rules = syntheticRules();
+        assertTrue( rules.isRuleOnly( 1 ) && rules.isRuleOnly( 2 ) );
+        Document inTurn = apply( rules, new int[]{ 1 }, new int[]{ 2 } );
+        Document fused = apply( rules, new int[]{ 1, 2 } );
+        assertTrue( inTurn.isEqualNode( fused ) );
+
+        // Step 1: a/b (only direct children) become c, a becomes p, the c
+        // which was c before step 1 loses old, and a gets a new b and a b
+        // element for its attribute, neither of which step 1's rename sees.
+        // Step 2: p/c become d, the new b gets y for x, and the b element's
+        // value changes.
+        Document expected = TestFiles.parse( "<root><p>"
+                + "<d n=\"1\" old=\"o\"/><q><b n=\"2\"/></q><d n=\"3\"/>"
+                + "<b y=\"1\"/><b value=\"3\"/>"
+                + "</p><c/></root>" );
+        assertTrue( expected.isEqualNode( fused ) );
+    }
+
+    @Test
+    public void createdElementsAreOnlySeenByLaterSteps() throws Exception {
+        RewriteRules rules = new RewriteRules()
+            .ruleOnly( 1 )
+                .appendElement( "a", "a", "n", "1" )
+                .renameElement( "a", "b" )
+            .ruleOnly( 2 )
+                .appendElement( "b", "a", "n", "2" )
+                .renameElement( "root/b/a", "c" );
+        Document document = TestFiles.parse( "<root><a/></root>" );
+        rules.compile( new int[]{ 1, 2 } ).apply( document.getDocumentElement(), new ElementIndex( document ), null );
+        // step 1 creates a under a and renames the outer a: the new a is
+        // neither extended nor renamed by step 1, but renamed by step 2 (its
+        // parent being b by then); the a step 2 creates is left alone.
+        Document expected = TestFiles.parse( "<root><b><c n=\"1\"/><a n=\"2\"/></b></root>" );
+        assertTrue( expected.isEqualNode( document ) );
+    }
+
+    @Test
+    public void compiledVisitorsAreCached() throws Exception {
+        RewriteRules rules = syntheticRules();
+        RewriteRules.Visitor visitor = rules.compile( new int[]{ 1, 2 } );
+        assertSame( visitor, rules.compile( new int[]{ 1, 2 } ) );
+        assertNotSame( visitor, rules.compile( new int[]{ 1 } ) );
+        rules.step( 3 ).removeAttribute( "a@b" );
+        assertNotSame( visitor, rules.compile( new int[]{ 1, 2 } ) );
+    }
+}
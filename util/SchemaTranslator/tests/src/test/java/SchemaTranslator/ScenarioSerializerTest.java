@@ -0,0 +1,169 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** ScenarioSerializer must write the same bytes as the Transformer path of
+ * Translator.writeTo, and refuse documents it cannot write that way. */
+public class ScenarioSerializerTest {
+    /** The old way: strip white-space text, normalize, identity
+     * Transformer. */
+    private static byte[] transform( Document document, boolean indent ) throws Exception {
+        stripWhitespace( document.getDocumentElement() );
+        document.normalize();
+        Transformer xformer = XmlPool.getTransformer();
+        xformer.setOutputProperty( OutputKeys.ENCODING, "UTF-8" );
+        xformer.setOutputProperty( OutputKeys.METHOD, "xml" );
+        if( indent ){
+            xformer.setOutputProperty( OutputKeys.INDENT, "yes" );
+            xformer.setOutputProperty( "{http://xml.apache.org/xslt}indent-amount", "2" );
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xformer.transform( new DOMSource( document ), new StreamResult( out ) );
+        return out.toByteArray();
+    }
+
+    private static void stripWhitespace( Node start ){
+        Node child = start.getFirstChild();
+        while( child != null ){
+            Node next = child.getNextSibling();
+            if( child.getNodeType() == Node.TEXT_NODE && child.getNodeValue().trim().length() == 0 ){
+                start.removeChild( child );
+            }else{
+                stripWhitespace( child );
+            }
+            child = next;
+        }
+    }
+
+    private static byte[] serialize( Document document, boolean indent ) throws Exception {
+        assertTrue( ScenarioSerializer.canWrite( document ) );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScenarioSerializer.write( document, out, indent );
+        return out.toByteArray();
+    }
+
+    private static Document parse( String xml ) throws Exception {
+        return TestFiles.parse( xml );
+    }
+
+    private static Document parse( String xml, String comment ) throws Exception {
+        Document document = TestFiles.parse( xml );
+        if( comment != null ) document.getDocumentElement().appendChild( document.createComment( comment ) );
+        return document;
+    }
+
+    /** Both ways give the same bytes, indented and compact. Each way gets
+     * its own parse, since the Transformer path modifies the document. */
+    private static void assertSameOutput( String what, String xml ) throws Exception {
+        assertSameOutput( what, xml, null );
+    }
+
+    /** As above, appending a comment (which need not be parseable) to the
+     * root element of each parse. */
+    private static void assertSameOutput( String what, String xml, String comment ) throws Exception {
+        for( boolean indent : new boolean[]{ true, false } ){
+            Document document = parse( xml, comment );
+            byte[] expected = transform( parse( xml, comment ), indent );
+            byte[] actual = serialize( document, indent );
+            assertArrayEquals( what + (indent ? " (indented)" : " (compact)"), expected, actual );
+        }
+    }
+
+    @Test
+    public void writesScenariosLikeTransformer() throws Exception {
+        for( File file : TestFiles.corpus() ){
+            assertSameOutput( file.getPath(), TestFiles.read( file ) );
+        }
+    }
+
+    @Test
+    public void writesEscapesCommentsAndNamespacesLikeTransformer() throws Exception {
+        assertSameOutput( "synthetic",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<om:scenario xmlns:om=\"http://openmalaria.org/schema/scenario_32\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" schemaVersion=\"32\">\n"
+                + "  <!-- a comment -->\n"
+                + "  <a q='say \"x\" &amp; &lt;y&gt;' t=\"tab&#9;nl&#10;cr&#13;\" u=\"😀\"/>\n"
+                + "  <b>1 &lt; 2 &amp;&amp; 3 &gt; 2 😀 é&#13;x\ny\tz</b>\n"
+                + "  <c>  surrounded by blanks  </c>\n"
+                + "  <d></d>\n"
+                + "  <e xmlns=\"urn:e\"><f/></e>\n"
+                + "  <g><!----><h>text</h></g>\n"
+                + "</om:scenario>\n",
+                "-- dashes --- and a final dash-" );
+    }
+
+    @Test
+    public void refusesCdata() throws Exception {
+        assertFalse( ScenarioSerializer.canWrite( parse( "<scenario><a><![CDATA[x < y]]></a></scenario>" ) ) );
+    }
+
+    @Test
+    public void refusesXmlSpace() throws Exception {
+        assertFalse( ScenarioSerializer.canWrite( parse( "<scenario><a xml:space=\"preserve\"> <b/> </a></scenario>" ) ) );
+    }
+
+    @Test
+    public void refusesMixedContent() throws Exception {
+        assertFalse( ScenarioSerializer.canWrite( parse( "<scenario><a>text<b/></a></scenario>" ) ) );
+        assertFalse( ScenarioSerializer.canWrite( parse( "<scenario><a>text<!-- c --></a></scenario>" ) ) );
+    }
+
+    @Test
+    public void refusesLoneSurrogates() throws Exception {
+        String[] values = new String[]{ "\uD83D", "x\uDE00", "\uDE00\uD83D" };
+        for( String value : values ){
+            Document document = parse( "<scenario><a/></scenario>" );
+            Element a = (Element) document.getDocumentElement().getFirstChild();
+            a.setAttribute( "v", value );
+            assertFalse( ScenarioSerializer.canWrite( document ) );
+
+            document = parse( "<scenario><a/></scenario>" );
+            a = (Element) document.getDocumentElement().getFirstChild();
+            a.appendChild( document.createTextNode( value ) );
+            assertFalse( ScenarioSerializer.canWrite( document ) );
+
+            document = parse( "<scenario><a/></scenario>" );
+            a = (Element) document.getDocumentElement().getFirstChild();
+            a.appendChild( document.createComment( value ) );
+            assertFalse( ScenarioSerializer.canWrite( document ) );
+        }
+        // a valid pair is fine
+        Document document = parse( "<scenario><a/></scenario>" );
+        ((Element) document.getDocumentElement().getFirstChild()).setAttribute( "v", "😀" );
+        assertTrue( ScenarioSerializer.canWrite( document ) );
+    }
+}
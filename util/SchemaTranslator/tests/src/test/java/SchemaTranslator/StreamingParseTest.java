@@ -0,0 +1,95 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/** StreamingTranslator.parse must produce the same DOM as the JDK's
+ * DocumentBuilder, whether it hands the document to the builder or builds
+ * it from (filtered) StAX events. */
+public class StreamingParseTest {
+    private static void assertSameDocument( String what, Document expected, Document actual ){
+        assertTrue( what + ": DOM differs from DocumentBuilder's", expected.isEqualNode( actual ) );
+        assertEquals( what, expected.getXmlStandalone(), actual.getXmlStandalone() );
+    }
+
+    /** At its own version nothing streams: the builder parses the input. */
+    @Test
+    public void parsesAtSourceVersion() throws Exception {
+        for( File file : TestFiles.corpus() ){
+            String xml = TestFiles.read( file );
+            int version = StreamingTranslator.readVersion( new InputSource( new StringReader( xml ) ) );
+            StreamingTranslator.Result result = StreamingTranslator.parse(
+                    new InputSource( new ByteArrayInputStream( TestFiles.readBytes( file ) ) ),
+                    TestFiles.newBuilder(), version );
+            assertEquals( version, result.getSourceVersion() );
+            assertEquals( version, result.getVersion() );
+            assertSameDocument( file.getPath(), TestFiles.parse( xml ), result.getDocument() );
+        }
+    }
+
+    /** 26 to 27 changes nothing but the version, so a document relabelled
+     * 26 is built from StAX events and must equal the builder's parse of
+     * the same text labelled 27. Both bytes and characters are tried. */
+    @Test
+    public void buildsSameDomWhenStreaming() throws Exception {
+        assertTrue( StreamingTranslator.isStreamable( 27 ) );
+        for( File file : TestFiles.corpus() ){
+            String xml = TestFiles.read( file );
+            Document expected = TestFiles.parse( TestFiles.withVersion( xml, 27 ) );
+            String relabelled = TestFiles.withVersion( xml, 26 );
+            InputSource[] inputs = new InputSource[]{
+                new InputSource( new ByteArrayInputStream( relabelled.getBytes( "UTF-8" ) ) ),
+                new InputSource( new StringReader( relabelled ) )
+            };
+            for( InputSource input : inputs ){
+                StreamingTranslator.Result result = StreamingTranslator.parse( input, TestFiles.newBuilder(), 27 );
+                assertEquals( 26, result.getSourceVersion() );
+                assertEquals( 27, result.getVersion() );
+                assertSameDocument( file.getPath(), expected, result.getDocument() );
+            }
+        }
+    }
+
+    /** The event builder does not handle DTDs, so a document with a doctype
+     * is left to the builder and no step is streamed. */
+    @Test
+    public void doctypeIsNotStreamed() throws Exception {
+        String xml = "<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE scenario [ <!ENTITY name \"entity text\"> ]>\n"
+                + "<scenario schemaVersion=\"26\" name=\"&name;\"><!-- c --><x><![CDATA[a<b]]></x></scenario>\n";
+        StreamingTranslator.Result result = StreamingTranslator.parse(
+                new InputSource( new StringReader( xml ) ), TestFiles.newBuilder(), 27 );
+        assertEquals( 26, result.getSourceVersion() );
+        assertEquals( 26, result.getVersion() );
+        assertNotNull( result.getDocument().getDoctype() );
+        assertSameDocument( "doctype", TestFiles.parse( xml ), result.getDocument() );
+    }
+}
@@ -0,0 +1,136 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Shared set-up for the tests: locating the repository and reading
+ * scenarios. */
+final class TestFiles {
+    private TestFiles() {}
+
+    /** Root of the OpenMalaria repository: the system property
+     * openmalaria.root if set, otherwise the first parent of the working
+     * directory containing schema/scenario.xsd. */
+    static File repositoryRoot(){
+        String prop = System.getProperty( "openmalaria.root" );
+        if( prop != null ) return new File( prop );
+        for( File dir = new File( System.getProperty( "user.dir" ) ).getAbsoluteFile();
+                dir != null; dir = dir.getParentFile() ){
+            if( new File( dir, "schema/scenario.xsd" ).isFile() ) return dir;
+        }
+        throw new IllegalStateException( "repository root not found; set -Dopenmalaria.root=..." );
+    }
+
+    static File file( String relPath ){
+        return new File( repositoryRoot(), relPath );
+    }
+
+    static byte[] readBytes( File file ) throws IOException {
+        RandomAccessFile in = new RandomAccessFile( file, "r" );
+        try{
+            byte[] bytes = new byte[ (int) in.length() ];
+            in.readFully( bytes );
+            return bytes;
+        }finally{
+            in.close();
+        }
+    }
+
+    static String read( File file ) throws IOException {
+        return new String( readBytes( file ), "UTF-8" );
+    }
+
+    /** Test resource name (relative to this package) as text, with line
+     * breaks as "\n". */
+    static String resource( String name ) throws IOException {
+        InputStream in = TestFiles.class.getResourceAsStream( name );
+        if( in == null ) throw new IOException( "no test resource " + name );
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[ 8192 ];
+            for( int n; (n = in.read( buffer )) > 0; ) bytes.write( buffer, 0, n );
+            return bytes.toString( "UTF-8" ).replace( "\r\n", "\n" );
+        }finally{
+            in.close();
+        }
+    }
+
+    /** Options as used for regression testing, without validation: all
+     * questions which the translator would otherwise stop to ask are
+     * answered. */
+    static Options options( int targetVersion ){
+        Options options = new Options();
+        options.setSchemaFolder( file( "schema" ) );
+        options.setTargetVersion( targetVersion );
+        options.setDoValidation( false );
+        options.setMaxDensBug( BugCorrectionBehaviour.CORRECT );
+        options.setITN29Translation( ITN29ParameterTranslation.REPLACE );
+        options.setHsTreatmentTranslation( HSTreatmentOption.SIMPLE );
+        options.setIptiSpOption( IptiSpBehaviour.ASSUME_UNINTENDED );
+        options.setIptiROAR( IptiReportOnlyAtRiskBehaviour.OFF );
+        return options;
+    }
+
+    /** The scenarios of test/ (scenario*.xml) and test/old/, in name order. */
+    static List<File> corpus(){
+        List<File> files = new ArrayList<File>();
+        addXml( files, file( "test" ), "scenario" );
+        addXml( files, file( "test/old" ), "" );
+        return files;
+    }
+
+    private static void addXml( List<File> files, File dir, String prefix ){
+        String[] names = dir.list();
+        if( names == null ) throw new IllegalStateException( "not a directory: " + dir );
+        Arrays.sort( names );
+        for( String name : names ){
+            if( name.startsWith( prefix ) && name.endsWith( ".xml" ) ) files.add( new File( dir, name ) );
+        }
+    }
+
+    /** A new non-namespace-aware DocumentBuilder, as the translator uses. */
+    static DocumentBuilder newBuilder() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    }
+
+    static Document parse( String xml ) throws Exception {
+        return newBuilder().parse( new InputSource( new StringReader( xml ) ) );
+    }
+
+    /** xml with the schemaVersion attribute (of the root element) set to
+     * version. */
+    static String withVersion( String xml, int version ){
+        return xml.replaceFirst( "schemaVersion=\"[0-9]*\"", "schemaVersion=\"" + version + "\"" );
+    }
+}
@@ -0,0 +1,182 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** TimeRescaler, and its use by the one-day time step translation. */
+public class TimeRescalerTest {
+    private static final TimeRescaler TIMES = new TimeRescaler()
+        .timePoint( "surveys/surveyTime" )
+        .timePoint( "intervention@time" )
+        .duration( "delay" );
+
+    /** Rescale a document with one t element, t@time and delay per value,
+     * returning the new values (and asserting that the three agree) and
+     * adding "time-rounded" warnings to warnings. */
+    private static List<String> rescale( int fromDays, int toDays, String[] values, List<String> warnings ) throws Exception {
+        StringBuilder xml = new StringBuilder( "<scenario><surveys>" );
+        for( String v : values ) xml.append( "<surveyTime>" ).append( v ).append( "</surveyTime>" );
+        xml.append( "</surveys>" );
+        for( String v : values ) xml.append( "<intervention time=\"" ).append( v ).append( "\"/>" );
+        xml.append( "</scenario>" );
+        Document document = TestFiles.parse( xml.toString() );
+        Diagnostics.begin( "test" );
+        int changed;
+        try{
+            changed = TIMES.rescale( document.getDocumentElement(), fromDays, toDays );
+        }finally{
+            for( Diagnostics.Entry e : Diagnostics.end() ){
+                assertEquals( "time-rounded", e.getCode() );
+                warnings.add( e.getMessage() );
+            }
+        }
+        assertEquals( 2 * values.length, changed );
+        List<String> result = new ArrayList<String>();
+        NodeList times = document.getElementsByTagName( "surveyTime" );
+        NodeList interventions = document.getElementsByTagName( "intervention" );
+        for( int i = 0; i < values.length; ++i ){
+            String value = times.item( i ).getTextContent();
+            assertEquals( value, ((Element) interventions.item( i )).getAttribute( "time" ) );
+            result.add( value );
+        }
+        return result;
+    }
+
+    private static String durations( int fromDays, int toDays, String value, List<String> warnings ) throws Exception {
+        Document document = TestFiles.parse( "<scenario><delay>" + value + "</delay></scenario>" );
+        Diagnostics.begin( "test" );
+        try{
+            TIMES.rescale( document.getDocumentElement(), fromDays, toDays );
+        }finally{
+            for( Diagnostics.Entry e : Diagnostics.end() ) warnings.add( e.getMessage() );
+        }
+        return document.getDocumentElement().getFirstChild().getTextContent();
+    }
+
+    @Test
+    public void timePointsCountFromOne() throws Exception {
+        List<String> warnings = new ArrayList<String>();
+        assertEquals( "[1, 6, 11, 49996]",
+                rescale( 5, 1, new String[]{ "1", "2", "3", "10000" }, warnings ).toString() );
+        assertEquals( "[1, 2, 3]", rescale( 1, 5, new String[]{ "1", "6", "11" }, warnings ).toString() );
+        assertTrue( warnings.isEmpty() );
+    }
+
+    @Test
+    public void roundsHalfAwayFromZeroWithWarning() throws Exception {
+        List<String> warnings = new ArrayList<String>();
+        // time points t: (t - 1) days of 1, in 5-day steps: 0.4, 0.6, 1.4
+        assertEquals( "[1, 2, 2]", rescale( 1, 5, new String[]{ "3", "4", "8" }, warnings ).toString() );
+        assertEquals( 6, warnings.size() );     // each value, surveyTime and intervention@time
+        assertTrue( warnings.get( 0 ), warnings.get( 0 ).startsWith( "surveyTime: 3 steps of 1 days" ) );
+
+        warnings.clear();
+        // durations of 1-day steps in 2-day steps: exactly half
+        assertEquals( "2", durations( 1, 2, "3", warnings ) );
+        assertEquals( "-2", durations( 1, 2, "-3", warnings ) );
+        assertEquals( "1", durations( 1, 2, "1", warnings ) );
+        assertEquals( "-1", durations( 1, 2, "-1", warnings ) );
+        assertEquals( "2", durations( 1, 2, "4", warnings ) );
+        assertEquals( 4, warnings.size() );
+        assertTrue( warnings.get( 0 ), warnings.get( 0 ).startsWith( "delay: 3 steps" ) );
+    }
+
+    @Test
+    public void onlyMatchingPathsChange() throws Exception {
+        Document document = TestFiles.parse( "<scenario>"
+                + "<surveys><surveyTime> 2 </surveyTime></surveys>"
+                + "<other><surveyTime>2</surveyTime></other>"
+                + "<intervention/><intervention start=\"2\"/>"
+                + "</scenario>" );
+        assertEquals( 1, TIMES.rescale( document.getDocumentElement(), 5, 1 ) );
+        NodeList times = document.getElementsByTagName( "surveyTime" );
+        assertEquals( "6", times.item( 0 ).getTextContent() );
+        assertEquals( "2", times.item( 1 ).getTextContent() );
+        assertEquals( 0, TIMES.rescale( document.getDocumentElement(), 1, 1 ) );
+    }
+
+    @Test
+    public void rejectsNonIntegers() throws Exception {
+        Document document = TestFiles.parse( "<scenario><intervention time=\"2.5\"/></scenario>" );
+        try{
+            TIMES.rescale( document.getDocumentElement(), 5, 1 );
+            fail( "no exception" );
+        }catch( NumberFormatException e ){
+            assertEquals( "intervention@time: expected a whole number of time steps, found \"2.5\"", e.getMessage() );
+        }
+    }
+
+    private static List<String> values( Document document, String name, String attribute ){
+        List<String> values = new ArrayList<String>();
+        NodeList list = document.getElementsByTagName( name );
+        for( int i = 0; i < list.getLength(); ++i ){
+            Element elt = (Element) list.item( i );
+            values.add( attribute == null ? elt.getTextContent() : elt.getAttribute( attribute ) );
+        }
+        return values;
+    }
+
+    /** --oneDayTimesteps on a version 18 scenario with 5-day time steps.
+     * Each intervention@time is rescaled once (the translation used to
+     * rescale the first intervention once per intervention and leave the
+     * others); healthSystemMemory is set to 28 days rather than rescaled.
+     * 5 days to 1 always gives whole numbers, so nothing is rounded. */
+    @Test
+    public void oneDayTimestepTranslation() throws Exception {
+        Options options = TestFiles.options( 18 );
+        options.setDoODTTranslation( true );
+        String input = TestFiles.resource( "odt/v18-5day.xml" );
+        Diagnostics.begin( "v18-5day.xml" );
+        List<Diagnostics.Entry> entries;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try{
+            TranslatorJava translator = new TranslatorJava(
+                    new InputSource( new ByteArrayInputStream( input.getBytes( "UTF-8" ) ) ), options );
+            translator.translateAndValidate();
+            translator.writeTo( new StreamResult( out ) );
+            translator.finish();
+        }finally{
+            entries = Diagnostics.end();
+        }
+        for( Diagnostics.Entry e : entries ) assertTrue( e.toString(), !e.getCode().equals( "time-rounded" ) );
+
+        Document document = TestFiles.parse( out.toString( "UTF-8" ) );
+        assertEquals( "[1, 6, 361, 49996]", values( document, "surveyTime", null ).toString() );
+        assertEquals( "[6, 61, 361]", values( document, "intervention", "time" ).toString() );
+        assertEquals( "[28]", values( document, "clinical", "healthSystemMemory" ).toString() );
+        List<String> options18 = values( document, "option", "name" );
+        assertTrue( options18.toString(), options18.contains( "MOLINEAUX_WITHIN_HOST_MODEL" ) );
+    }
+}
@@ -0,0 +1,116 @@
+/* This file is part of OpenMalaria.
+ *
+ * Copyright (C) 2005-2011 Swiss Tropical Institute and Liverpool School Of Tropical Medicine
+ *
+ * OpenMalaria is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package SchemaTranslator;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** --update-db against a real SQLite database: the reader must not hold a
+ * lock which stops the writer from committing its batches. */
+public class UpdateDbTest {
+    private static final int ROWS = 57;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String url;
+    private String compact;
+
+    @Before
+    public void createDatabase() throws Exception {
+        url = "jdbc:sqlite:" + folder.newFile( "scenarios.db" ).getPath();
+        // without indentation, so that translated rows can be told apart
+        compact = TestFiles.read( TestFiles.file( "test/old/scenario2.xml" ) ).replaceAll( ">\\s+<", "><" );
+        Connection con = DriverManager.getConnection( url );
+        try{
+            Statement stmt = con.createStatement();
+            stmt.executeUpdate( "CREATE TABLE scenarios (id INTEGER PRIMARY KEY, xml TEXT)" );
+            stmt.close();
+            PreparedStatement insert = con.prepareStatement( "INSERT INTO scenarios (id, xml) VALUES (?, ?)" );
+            for( int id = 1; id <= ROWS; ++id ){
+                insert.setInt( 1, id );
+                insert.setString( 2, compact );
+                insert.executeUpdate();
+            }
+            insert.close();
+        }finally{
+            con.close();
+        }
+    }
+
+    private Options options( int threads ){
+        Options options = new Options();
+        options.setDoDBUpdate( true );
+        options.setDbUrl( url );
+        options.setDbUser( "" );
+        options.setDbPassword( "" );
+        options.setDbDriver( "org.sqlite.JDBC" );
+        // several pages and batches, not aligned
+        options.setDbFetchSize( 10 );
+        options.setDbBatchSize( 7 );
+        options.setThreads( threads );
+        options.setDoValidation( false );
+        return options;
+    }
+
+    private void assertAllTranslated() throws SQLException {
+        Connection con = DriverManager.getConnection( url );
+        try{
+            Statement stmt = con.createStatement();
+            ResultSet rows = stmt.executeQuery( "SELECT id, xml FROM scenarios" );
+            int n = 0;
+            while( rows.next() ){
+                String xml = rows.getString( "xml" );
+                assertTrue( "row " + rows.getInt( "id" ) + " not written", !xml.equals( compact ) );
+                assertTrue( xml.contains( "schemaVersion=\"32\"" ) );
+                ++n;
+            }
+            rows.close();
+            stmt.close();
+            assertEquals( ROWS, n );
+        }finally{
+            con.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void updatesAllRows() throws Exception {
+        SchemaTranslatorPackage.updateDB( options( 1 ) );
+        assertAllTranslated();
+    }
+
+    @Test(timeout = 60000)
+    public void updatesAllRowsInParallel() throws Exception {
+        SchemaTranslatorPackage.updateDB( options( 4 ) );
+        assertAllTranslated();
+    }
+}